@@ -0,0 +1,394 @@
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Evaluates every position of a file of finished games with StrongAI, on all cores, without ever holding more
+ * than a few games in memory.
+ *
+ * Each line of the input is one game, as the columns played numbered from 1 (e.g. "4453...", as for Solver),
+ * optionally followed by whitespace and anything else, which is ignored. For every position before each move,
+ * one line is written:
+ * <pre>
+ * game,ply,played,best,value
+ * </pre>
+ * where game is the line number, ply the number of pieces on the board, played the column played there, best the
+ * column StrongAI prefers and value its value to the side to move. A line that is not a legal game gets a single
+ * "game,invalid" line after the positions before the first bad move, be it an illegal move or a character that is
+ * not a column. Blank lines are skipped.
+ *
+ * Work flows through a fixed set of Jobs: a reader thread parses each line straight from a byte buffer into a
+ * free Job, workers each replay theirs on their own Board and StrongAIs and format the results into the Job's
+ * own output buffer, and the calling thread writes the Jobs out in input order and hands them back to the
+ * reader. When the writer or the workers fall behind the reader runs out of Jobs and waits, so memory stays the
+ * same however big the file is, and nothing is allocated per line. Each game starts with empty transposition
+ * tables, so the results are the same whichever worker analyzes it and however many there are.
+ *
+ * @author Andrew
+ *
+ */
+public class Analyzer {
+
+	static final int ROWS = 6;
+	static final int COLS = 7;
+	static final int MAX_MOVES = ROWS * COLS;
+	/**
+	 * Longest output line: a 19 digit game number, a two digit ply, two columns, a value and separators.
+	 */
+	static final int MAX_RECORD_BYTES = 40;
+	/**
+	 * Jobs in flight per worker, enough to keep every worker busy while the writer waits on a slow one.
+	 */
+	static final int JOBS_PER_THREAD = 4;
+
+	int threads;
+	int searchDepth;
+	OpeningBook book;
+	/**
+	 * Evaluate only the position after the last move of each line, for files of positions rather than games.
+	 */
+	boolean lastOnly;
+
+	long games;
+	long positions;
+	long invalid;
+
+	/**
+	 * One game on its way through the pipeline.
+	 */
+	static class Job {
+		long game;
+		int[] moves = new int[MAX_MOVES + 1];
+		int moveCount;
+		boolean malformed;
+		byte[] out = new byte[(MAX_MOVES + 1) * MAX_RECORD_BYTES];
+		int outLength;
+		int positions;
+		boolean done;
+		Throwable failure;
+
+		synchronized void finish() {
+			done = true;
+			notifyAll();
+		}
+
+		synchronized void awaitDone() throws InterruptedException {
+			while (!done) {
+				wait();
+			}
+		}
+	}
+
+	/**
+	 * Marks the end of the input in the queues.
+	 */
+	static final Job END = new Job();
+
+	/**
+	 * @param threads     number of games analyzed at the same time
+	 * @param searchDepth plies searched by StrongAI for each position
+	 */
+	public Analyzer(int threads, int searchDepth) {
+		this.threads = threads;
+		this.searchDepth = searchDepth;
+	}
+
+	/**
+	 * @param book moves to take from the opening book instead of searching, or null
+	 */
+	public void setOpeningBook(OpeningBook book) {
+		this.book = book;
+	}
+
+	/**
+	 * @param lastOnly true to evaluate only the final position of each line
+	 */
+	public void setLastOnly(boolean lastOnly) {
+		this.lastOnly = lastOnly;
+	}
+
+	/**
+	 * Analyzes every game in the input and writes the results to the output, in input order. Neither stream is
+	 * closed.
+	 */
+	public void run(final InputStream in, OutputStream out) throws IOException {
+		games = 0;
+		positions = 0;
+		invalid = 0;
+		final BlockingQueue<Job> free = new ArrayBlockingQueue<Job>(threads * JOBS_PER_THREAD);
+		final BlockingQueue<Job> work = new ArrayBlockingQueue<Job>(threads * JOBS_PER_THREAD + threads);
+		final BlockingQueue<Job> order = new ArrayBlockingQueue<Job>(threads * JOBS_PER_THREAD + 1);
+		for (int i = 0; i < threads * JOBS_PER_THREAD; i++) {
+			free.add(new Job());
+		}
+		final IOException[] readFailure = new IOException[1];
+		Thread reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					read(in, free, work, order);
+				} catch (IOException e) {
+					readFailure[0] = e;
+				} catch (InterruptedException e) {
+					// stopped by the writer
+				} finally {
+					try {
+						order.put(END);
+						for (int i = 0; i < threads; i++) {
+							work.put(END);
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+		}, "Analyzer reader");
+		Thread[] workers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			workers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					analyze(work);
+				}
+			}, "Analyzer worker " + i);
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+		reader.setDaemon(true);
+		reader.start();
+		try {
+			Job job;
+			while ((job = order.take()) != END) {
+				job.awaitDone();
+				if (job.failure != null) {
+					throw new IllegalStateException("Analysis of game " + job.game + " failed", job.failure);
+				}
+				out.write(job.out, 0, job.outLength);
+				games++;
+				positions += job.positions;
+				if (job.malformed) {
+					invalid++;
+				}
+				free.put(job);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted");
+		} finally {
+			reader.interrupt();
+			for (Thread worker : workers) {
+				worker.interrupt();
+			}
+		}
+		out.flush();
+		if (readFailure[0] != null) {
+			throw readFailure[0];
+		}
+	}
+
+	/**
+	 * Parses the input a buffer at a time, one line into each free Job.
+	 */
+	void read(InputStream in, BlockingQueue<Job> free, BlockingQueue<Job> work, BlockingQueue<Job> order)
+			throws IOException, InterruptedException {
+		byte[] buffer = new byte[1 << 16];
+		long line = 1;
+		Job job = null;
+		boolean skipping = false; // past the moves of the line
+		int n;
+		while ((n = in.read(buffer)) > 0) {
+			for (int i = 0; i < n; i++) {
+				byte c = buffer[i];
+				if (c == '\n') {
+					if (job != null) {
+						submit(job, work, order);
+						job = null;
+					}
+					skipping = false;
+					line++;
+					continue;
+				}
+				if (skipping || c == '\r') {
+					continue;
+				}
+				if (c == ' ' || c == '\t' || c == ',') {
+					skipping = job != null; // leading blanks are allowed
+					continue;
+				}
+				if (job == null) {
+					job = free.take();
+					job.game = line;
+					job.moveCount = 0;
+					job.malformed = false;
+				}
+				if (c >= '1' && c < '1' + COLS && job.moveCount < MAX_MOVES) {
+					job.moves[job.moveCount++] = c - '1';
+				} else {
+					job.malformed = true;
+					skipping = true;
+				}
+			}
+		}
+		if (job != null) {
+			submit(job, work, order);
+		}
+	}
+
+	private static void submit(Job job, BlockingQueue<Job> work, BlockingQueue<Job> order)
+			throws InterruptedException {
+		job.done = false;
+		job.failure = null;
+		order.put(job);
+		work.put(job);
+	}
+
+	/**
+	 * Runs on each worker thread until the end of the input.
+	 */
+	void analyze(BlockingQueue<Job> work) {
+		Board board = new Board(ROWS, COLS);
+		StrongAI red = newAI(Piece.RED);
+		StrongAI yellow = newAI(Piece.YELLOW);
+		try {
+			Job job;
+			while ((job = work.take()) != END) {
+				try {
+					analyze(job, board, red, yellow);
+				} catch (RuntimeException e) {
+					job.failure = e;
+				}
+				job.finish();
+			}
+		} catch (InterruptedException e) {
+			// the run is over
+		}
+	}
+
+	private StrongAI newAI(Piece p) {
+		StrongAI ai = new StrongAI(p, 1 << 16);
+		ai.setVerbose(false);
+		ai.setSearchDepth(searchDepth);
+		ai.setOpeningBook(book);
+		return ai;
+	}
+
+	/**
+	 * Replays the game of a job, evaluating the positions along the way that are not already decided, and formats
+	 * the results into job.out. A malformed line is replayed as far as it was parsed.
+	 */
+	void analyze(Job job, Board board, StrongAI red, StrongAI yellow) {
+		board.clearBoard();
+		red.getTranspositionTable().clear();
+		yellow.getTranspositionTable().clear();
+		job.outLength = 0;
+		job.positions = 0;
+		boolean legal = true;
+		for (int ply = 0; ply <= job.moveCount && legal; ply++) {
+			boolean over = board.lastMoveWon() || !board.movesRemaining();
+			if (over && ply < job.moveCount) {
+				legal = false; // moves after the end of the game
+				break;
+			}
+			// the end of a malformed line is not the end of its game
+			if (!over && (ply < job.moveCount ? !lastOnly : lastOnly && !job.malformed)) {
+				StrongAI ai = ply % 2 == 0 ? red : yellow;
+				int best = ai.getMove(board);
+				record(job, ply, ply < job.moveCount ? job.moves[ply] + 1 : 0, best + 1, ai.getLastValue());
+			}
+			if (ply < job.moveCount) {
+				legal = board.placePiece(job.moves[ply], ply % 2 == 0 ? Piece.RED : Piece.YELLOW);
+			}
+		}
+		if (!legal || job.malformed) {
+			job.malformed = true;
+			job.outLength = putLong(job.out, job.outLength, job.game);
+			job.outLength = putBytes(job.out, job.outLength, INVALID);
+		}
+	}
+
+	static final byte[] INVALID = { ',', 'i', 'n', 'v', 'a', 'l', 'i', 'd', '\n' };
+
+	private static void record(Job job, int ply, int played, int best, int value) {
+		byte[] out = job.out;
+		int i = putLong(out, job.outLength, job.game);
+		out[i++] = ',';
+		i = putLong(out, i, ply);
+		out[i++] = ',';
+		i = putLong(out, i, played);
+		out[i++] = ',';
+		i = putLong(out, i, best);
+		out[i++] = ',';
+		i = putLong(out, i, value);
+		out[i++] = '\n';
+		job.outLength = i;
+		job.positions++;
+	}
+
+	/**
+	 * Writes v in decimal at out[i].
+	 *
+	 * @return the index after the last digit
+	 */
+	static int putLong(byte[] out, int i, long v) {
+		if (v < 0) {
+			out[i++] = '-';
+			v = -v;
+		}
+		int start = i;
+		do {
+			out[i++] = (byte) ('0' + v % 10);
+			v /= 10;
+		} while (v != 0);
+		for (int a = start, b = i - 1; a < b; a++, b--) {
+			byte t = out[a];
+			out[a] = out[b];
+			out[b] = t;
+		}
+		return i;
+	}
+
+	private static int putBytes(byte[] out, int i, byte[] bytes) {
+		System.arraycopy(bytes, 0, out, i, bytes.length);
+		return i + bytes.length;
+	}
+
+	/**
+	 * Usage: java Analyzer [input] [output] [threads] [depth] [last]
+	 *
+	 * Reads standard input and writes standard output when the file is - or not given. With "last" only the
+	 * final position of each line is evaluated. The opening book in connect4.book is used if there is one. A
+	 * summary goes to standard error.
+	 */
+	public static void main(String[] args) throws IOException {
+		String input = args.length > 0 ? args[0] : "-";
+		String output = args.length > 1 ? args[1] : "-";
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		int depth = args.length > 3 ? Integer.parseInt(args[3]) : StrongAI.SEARCH_DEPTH;
+		Analyzer analyzer = new Analyzer(threads, depth);
+		analyzer.setLastOnly(args.length > 4 && args[4].equals("last"));
+		analyzer.setOpeningBook(OpeningBook.openIfPresent(new java.io.File(OpeningBook.DEFAULT_FILE)));
+		InputStream in = input.equals("-") ? System.in : new FileInputStream(input);
+		OutputStream out = new BufferedOutputStream(output.equals("-") ? System.out : new FileOutputStream(output),
+				1 << 16);
+		long start = System.nanoTime();
+		try {
+			analyzer.run(in, out);
+		} finally {
+			out.flush();
+			if (in != System.in) {
+				in.close();
+			}
+			if (!output.equals("-")) {
+				out.close();
+			}
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.err.printf("%d games, %d positions, %d invalid in %.1f s: %.0f positions/s on %d threads%n",
+				analyzer.games, analyzer.positions, analyzer.invalid, seconds, analyzer.positions / seconds, threads);
+	}
+}
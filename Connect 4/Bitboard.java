@@ -0,0 +1,130 @@
+/**
+ * The bitboard arithmetic of one board size, in the bit layout of Board: a group of colBits bits to a column,
+ * bottom cell lowest, with the bit above the top cell always clear. Solver, Tablebase and MctsPlayer all work on
+ * two longs, the pieces of the side to move and all the pieces, and share the functions here.
+ *
+ * Immutable, so one can be shared by any number of threads.
+ *
+ * @author Andrew
+ *
+ */
+public final class Bitboard {
+
+	final int rows;
+	final int cols;
+	final int colBits;
+	final int cells;
+	/**
+	 * The bottom cell of every column.
+	 */
+	final long bottomMask;
+	/**
+	 * Every cell of the board.
+	 */
+	final long boardMask;
+	/**
+	 * Every cell of each column.
+	 */
+	final long[] columnMasks;
+	/**
+	 * Columns from the center outwards, the order moves are tried in when nothing else tells them apart.
+	 */
+	final int[] columnOrder;
+
+	/**
+	 * @param rows
+	 * @param cols
+	 * @throws IllegalArgumentException if the board does not fit in a long
+	 */
+	public Bitboard(int rows, int cols) {
+		if ((long) (rows + 1) * cols > 64) {
+			throw new IllegalArgumentException("Board of " + rows + "x" + cols + " does not fit in a bitboard");
+		}
+		this.rows = rows;
+		this.cols = cols;
+		colBits = rows + 1;
+		cells = rows * cols;
+		long bottom = 0;
+		columnMasks = new long[cols];
+		for (int col = 0; col < cols; col++) {
+			bottom |= 1L << (col * colBits);
+			columnMasks[col] = ((1L << rows) - 1) << (col * colBits);
+		}
+		bottomMask = bottom;
+		boardMask = bottomMask * ((1L << rows) - 1);
+		columnOrder = new int[cols];
+		for (int i = 0; i < cols; i++) {
+			// 3, 2, 4, 1, 5, 0, 6 on 7 columns
+			columnOrder[i] = cols / 2 + (1 - 2 * (i % 2)) * (i + 1) / 2;
+		}
+	}
+
+	/**
+	 * @return the bits of the empty cells where a piece would complete 4 in a row for the side owning pieces
+	 */
+	long winningCells(long pieces, long mask) {
+		// vertical: three on top of each other with the cell above them
+		long r = (pieces << 1) & (pieces << 2) & (pieces << 3);
+		r |= winningCells(pieces, colBits); // horizontal
+		r |= winningCells(pieces, colBits - 1); // diagonal one way
+		r |= winningCells(pieces, colBits + 1); // and the other
+		return r & (boardMask ^ mask);
+	}
+
+	/**
+	 * @return the cells that complete 4 in a row along the direction a shift of step moves in, whether or not
+	 *         they are empty or on the board
+	 */
+	private static long winningCells(long pieces, int step) {
+		long pair = (pieces << step) & (pieces << 2 * step);
+		long r = pair & (pieces << 3 * step); // three to one side
+		r |= pair & (pieces >>> step); // two to one side, one to the other
+		pair = (pieces >>> step) & (pieces >>> 2 * step);
+		r |= pair & (pieces << step);
+		r |= pair & (pieces >>> 3 * step);
+		return r;
+	}
+
+	/**
+	 * @return the bit of the lowest empty cell of each column that is not full
+	 */
+	long playable(long mask) {
+		return (mask + bottomMask) & boardMask;
+	}
+
+	/**
+	 * @return the moves for the side owning current that do not let the opponent win straight away: the one
+	 *         block if the opponent threatens to win, none if it threatens to win in two places, and never a
+	 *         cell right below one the opponent would win on
+	 */
+	long nonLosingMoves(long current, long mask) {
+		long moves = playable(mask);
+		long threats = winningCells(current ^ mask, mask);
+		long forced = moves & threats;
+		if (forced != 0) {
+			if ((forced & (forced - 1)) != 0) {
+				return 0;
+			}
+			moves = forced;
+		}
+		return moves & ~(threats >>> 1);
+	}
+
+	/**
+	 * @return true if pieces has 4 in a row anywhere
+	 */
+	boolean hasFour(long pieces) {
+		return hasFour(pieces, 1) // vertical
+				|| hasFour(pieces, colBits) // horizontal
+				|| hasFour(pieces, colBits - 1) // down and to the right
+				|| hasFour(pieces, colBits + 1); // up and to the right
+	}
+
+	/**
+	 * @return true if pieces has 4 bits in a row spaced by shift, i.e. along one direction
+	 */
+	static boolean hasFour(long pieces, int shift) {
+		long pairs = pieces & (pieces >>> shift);
+		return (pairs & (pairs >>> 2 * shift)) != 0;
+	}
+}
@@ -1,85 +1,326 @@
 /**
  * A representation of a connect 4 board that handles valid piece placement.
+ *
+ * Internally the board is a bitboard: one long mask per color plus the height of each column. Column c
+ * occupies bits c*(numRows+1) through c*(numRows+1)+numRows-1, with the bottom row in the lowest bit. The
+ * extra bit on top of every column is always zero so that shifted masks never bleed from one column into the
+ * next. Row 0 is still the top row as far as the public methods are concerned.
+ *
+ * Because of this, (rows + 1) * cols may not exceed 64. A standard 6 by 7 board uses 49 bits.
+ *
+ * Every line of 4 cells on the board (a window, 69 of them on a standard board) also keeps a count of the red and
+ * yellow pieces in it, updated by placePiece and undoMove, along with the sum of WINDOW_VALUES over all windows.
+ * That sum is the heuristic value StrongAI scores positions with, so it costs nothing to read at the leaves. Both
+ * counts of a window are packed into one code so that a move only does a table lookup and an add per window.
  * @author Andrew
  *
  */
 public class Board {
 
-	Piece[][] board;
 	int numRows;
 	int numCols;
-	
+
 	/**
-	 * Create a board with specified dimensions. 
-	 * @param rows
-	 * @param cols
+	 * Number of bits reserved for each column, numRows plus one always-empty separator bit.
 	 */
-	public Board(int rows, int cols) {
-		numRows = rows;
-		numCols = cols;
-		board = new Piece[rows][cols];
-		for(int i = 0; i < rows; i++) {
-			for(int j = 0; j < cols; j++) {
-				board[i][j] = Piece.EMPTY;
+	int colBits;
+	long redMask;
+	long yellowMask;
+	/**
+	 * Mask of the top playable cell of every column. The board is full once all of these are taken.
+	 */
+	long topMask;
+	/**
+	 * Number of pieces in each column.
+	 */
+	int[] heights;
+	/**
+	 * Columns played so far, in order, so that the last move is known.
+	 */
+	int[] moves;
+	int moveCount;
+	/**
+	 * Zobrist hash of the current position, and of its mirror image, kept up to date by placePiece and undoMove.
+	 */
+	long hash;
+	long mirrorHash;
+
+	/**
+	 * The windows through each bit index, none for the separator bits. Depends only on the size of the board, so
+	 * copies share it.
+	 */
+	int[][] cellWindows;
+	/**
+	 * Red pieces plus YELLOW_UNIT times yellow pieces in each window.
+	 */
+	byte[] windowCodes;
+	/**
+	 * Sum of WINDOW_VALUES over all windows, from red's point of view.
+	 */
+	int windowScore;
+
+	/**
+	 * Value to red of a window holding [red][yellow] pieces. A window with both colors in it can never be won
+	 * and is worth nothing; otherwise each extra piece is worth several times more than the one before, since
+	 * three with the fourth cell still open is a threat the opponent has to answer.
+	 */
+	static final int[][] WINDOW_VALUES = {
+			{ 0, -1, -4, -24, -200 },
+			{ 1, 0, 0, 0, 0 },
+			{ 4, 0, 0, 0, 0 },
+			{ 24, 0, 0, 0, 0 },
+			{ 200, 0, 0, 0, 0 } };
+
+	static final int YELLOW_UNIT = 5;
+	/**
+	 * Change in the value of a window with a given code when a red or a yellow piece is added to it.
+	 */
+	static final int[] RED_GAIN = new int[YELLOW_UNIT * YELLOW_UNIT];
+	static final int[] YELLOW_GAIN = new int[YELLOW_UNIT * YELLOW_UNIT];
+	static {
+		for(int red = 0; red < 4; red++) {
+			for(int yellow = 0; red + yellow < 4; yellow++) {
+				int code = red + YELLOW_UNIT * yellow;
+				RED_GAIN[code] = WINDOW_VALUES[red + 1][yellow] - WINDOW_VALUES[red][yellow];
+				YELLOW_GAIN[code] = WINDOW_VALUES[red][yellow + 1] - WINDOW_VALUES[red][yellow];
 			}
 		}
 	}
-	
+
 	/**
-	 * Removes a single piece from the specified column.
-	 * @param col
+	 * Random keys for each color and bit, generated from a fixed seed so that hashes are stable between runs.
 	 */
-	public void undoMove(int col) {
-		for(int row = 0; row < numRows; row++) {
-			if(board[row][col] != Piece.EMPTY) {
-				board[row][col] = Piece.EMPTY;
-				return;
+	static final long[][] ZOBRIST = new long[2][64];
+	static {
+		java.util.SplittableRandom random = new java.util.SplittableRandom(0x436f6e6e65637434L);
+		for(int color = 0; color < 2; color++) {
+			for(int i = 0; i < 64; i++) {
+				ZOBRIST[color][i] = random.nextLong();
 			}
 		}
 	}
+
+	/**
+	 * Create a board with specified dimensions.
+	 * @param rows
+	 * @param cols
+	 */
+	public Board(int rows, int cols) {
+		init(rows, cols);
+	}
+
 	/**
 	 * A quick constructor to create a board from scratch via an array. Chars should be either 'R', 'Y' or'-' in
-	 * the array only.
+	 * the array only. Pieces are expected to rest on top of each other, with no gaps below them.
 	 * @param a
 	 */
 	public Board(char[][] a) {
-		board = new Piece[a.length][a[0].length];
-		numRows = a.length;
-		numCols = a[0].length;
-		for(int i = 0; i < numRows; i++) {
-			for(int j = 0; j < numCols; j++) {
+		init(a.length, a[0].length);
+		for(int j = 0; j < numCols; j++) {
+			for(int i = 0; i < numRows; i++) {
+				int index = j * colBits + numRows - 1 - i;
+				int mirror = mirrorIndex(index);
 				switch(a[i][j]) {
-				case 'R': board[i][j] = Piece.RED;
-				break;
-				case 'Y': board[i][j] = Piece.YELLOW;
+				case 'R': redMask |= 1L << index;
+				hash ^= ZOBRIST[0][index];
+				mirrorHash ^= ZOBRIST[0][mirror];
+				addRed(index);
 				break;
-				case '-': board[i][j] = Piece.EMPTY;
+				case 'Y': yellowMask |= 1L << index;
+				hash ^= ZOBRIST[1][index];
+				mirrorHash ^= ZOBRIST[1][mirror];
+				addYellow(index);
 				break;
+				default: continue;
+				}
+				if(heights[j] == 0) {
+					heights[j] = numRows - i;
 				}
 			}
 		}
 	}
-	
+
 	/**
-	 * Clears board entirely of all pieces.
+	 * Creates a copy of another board, for example to search on in another thread.
+	 * @param other
 	 */
-	public void clearBoard() {
-		for(int i = 0; i < numRows; i++) {
+	public Board(Board other) {
+		numRows = other.numRows;
+		numCols = other.numCols;
+		colBits = other.colBits;
+		redMask = other.redMask;
+		yellowMask = other.yellowMask;
+		topMask = other.topMask;
+		heights = other.heights.clone();
+		moves = other.moves.clone();
+		moveCount = other.moveCount;
+		hash = other.hash;
+		mirrorHash = other.mirrorHash;
+		cellWindows = other.cellWindows;
+		windowCodes = other.windowCodes.clone();
+		windowScore = other.windowScore;
+	}
+
+	private void init(int rows, int cols) {
+		if((long) (rows + 1) * cols > 64) {
+			throw new IllegalArgumentException("Board of " + rows + "x" + cols + " does not fit in a bitboard");
+		}
+		numRows = rows;
+		numCols = cols;
+		colBits = rows + 1;
+		heights = new int[cols];
+		moves = new int[rows * cols];
+		for(int j = 0; j < cols; j++) {
+			topMask |= 1L << (j * colBits + rows - 1);
+		}
+		findWindows();
+	}
+
+	/**
+	 * Lists every line of 4 cells: up the columns, along the rows, then both diagonals, and fills cellWindows.
+	 */
+	private void findWindows() {
+		int[][] directions = { { 0, 1 }, { 1, 0 }, { 1, 1 }, { 1, -1 } }; // column and height steps
+		int[][] found = new int[4 * numRows * numCols][];
+		int count = 0;
+		int[] perCell = new int[64];
+		for(int[] d : directions) {
 			for(int j = 0; j < numCols; j++) {
-				board[i][j] = Piece.EMPTY;
+				for(int h = 0; h < numRows; h++) {
+					int endCol = j + 3 * d[0];
+					int endHeight = h + 3 * d[1];
+					if(endCol < numCols && endHeight >= 0 && endHeight < numRows) {
+						int[] window = new int[4];
+						for(int k = 0; k < 4; k++) {
+							window[k] = (j + d[0] * k) * colBits + h + d[1] * k;
+							perCell[window[k]]++;
+						}
+						found[count++] = window;
+					}
+				}
+			}
+		}
+		cellWindows = new int[64][];
+		for(int index = 0; index < 64; index++) {
+			cellWindows[index] = new int[perCell[index]];
+			perCell[index] = 0;
+		}
+		for(int w = 0; w < count; w++) {
+			for(int index : found[w]) {
+				cellWindows[index][perCell[index]++] = w;
+			}
+		}
+		windowCodes = new byte[count];
+	}
+
+	/**
+	 * Counts a red piece at index in each window through it and updates windowScore. There are no windows through
+	 * the separator bits, so cellWindows has an empty list for them.
+	 */
+	private void addRed(int index) {
+		for(int w : cellWindows[index]) {
+			windowScore += RED_GAIN[windowCodes[w]];
+			windowCodes[w] += 1;
+		}
+	}
+
+	private void addYellow(int index) {
+		for(int w : cellWindows[index]) {
+			windowScore += YELLOW_GAIN[windowCodes[w]];
+			windowCodes[w] += YELLOW_UNIT;
+		}
+	}
+
+	private void removeRed(int index) {
+		for(int w : cellWindows[index]) {
+			windowCodes[w] -= 1;
+			windowScore -= RED_GAIN[windowCodes[w]];
+		}
+	}
+
+	private void removeYellow(int index) {
+		for(int w : cellWindows[index]) {
+			windowCodes[w] -= YELLOW_UNIT;
+			windowScore -= YELLOW_GAIN[windowCodes[w]];
+		}
+	}
+
+	/**
+	 * @param index
+	 * @return the bit index of the same cell with the board flipped left to right
+	 */
+	int mirrorIndex(int index) {
+		return (numCols - 1 - index / colBits) * colBits + index % colBits;
+	}
+
+	/**
+	 * @param row
+	 * @param col
+	 * @return the single bit representing the given on-board cell
+	 */
+	long bit(int row, int col) {
+		return 1L << (col * colBits + numRows - 1 - row);
+	}
+
+	/**
+	 * Removes a single piece from the specified column.
+	 * @param col
+	 */
+	public void undoMove(int col) {
+		if(heights[col] > 0) {
+			if(moveCount > 0 && moves[moveCount - 1] == col) {
+				moveCount--;
+			} else {
+				// taken back out of order, forget the most recent move in this column
+				for(int i = moveCount - 1; i > -1; i--) {
+					if(moves[i] == col) {
+						System.arraycopy(moves, i + 1, moves, i, --moveCount - i);
+						break;
+					}
+				}
+			}
+			int index = col * colBits + --heights[col];
+			long removed = 1L << index;
+			int mirror = mirrorIndex(index);
+			if((redMask & removed) != 0) {
+				redMask &= ~removed;
+				hash ^= ZOBRIST[0][index];
+				mirrorHash ^= ZOBRIST[0][mirror];
+				removeRed(index);
+			} else {
+				yellowMask &= ~removed;
+				hash ^= ZOBRIST[1][index];
+				mirrorHash ^= ZOBRIST[1][mirror];
+				removeYellow(index);
 			}
 		}
 	}
-	
+
+	/**
+	 * Clears board entirely of all pieces.
+	 */
+	public void clearBoard() {
+		redMask = 0;
+		yellowMask = 0;
+		hash = 0;
+		mirrorHash = 0;
+		moveCount = 0;
+		for(int j = 0; j < numCols; j++) {
+			heights[j] = 0;
+		}
+		java.util.Arrays.fill(windowCodes, (byte) 0);
+		windowScore = 0;
+	}
+
 	/**
 	 * Determines if a move at a given column is valid.
 	 * @param col
 	 * @return true if valid, false otherwise
 	 */
 	public boolean isValidMove(int col) {
-		return board[0][col] == Piece.EMPTY && col > -1 && col < numCols;
+		return col > -1 && col < numCols && heights[col] < numRows;
 	}
-	
+
 	/**
 	 * Determines if given row,col coordinate is on the board at all.
 	 * @param row
@@ -89,7 +330,7 @@ public class Board {
 	public boolean isOnBoard(int row, int col) {
 		return -1 < row && row < numRows && -1 < col && col < numCols;
 	}
-	
+
 	/**
 	 * Places specified Piece at given col, if possible.
 	 * @param col
@@ -98,54 +339,169 @@ public class Board {
 	 */
 	public boolean placePiece(int col, Piece p) {
 		if(isValidMove(col)) {
-			int row = numRows - 1;
-			while (row > - 1 && board[row][col] != Piece.EMPTY) {
-				row--;
+			if(p == Piece.EMPTY) {
+				return true;
+			}
+			moves[moveCount++] = col;
+			int index = col * colBits + heights[col];
+			int mirror = (numCols - 1 - col) * colBits + heights[col]++;
+			if(p == Piece.RED) {
+				redMask |= 1L << index;
+				hash ^= ZOBRIST[0][index];
+				mirrorHash ^= ZOBRIST[0][mirror];
+				addRed(index);
+			} else {
+				yellowMask |= 1L << index;
+				hash ^= ZOBRIST[1][index];
+				mirrorHash ^= ZOBRIST[1][mirror];
+				addYellow(index);
 			}
-			board[row][col] = p;
 			return true;
 		}
 		return false;
-		
+
 	}
-	
+
 	public String toString() {
-		String str="";
+		StringBuilder str = new StringBuilder(numRows * (numCols * 2 + 1));
 		for(int i = 0; i < numRows; i++) {
 			for(int j = 0; j < numCols; j++) {
-				str += board[i][j].toString() + " ";
+				str.append(getPiece(i, j).toString()).append(' ');
 			}
-			str+= "\n";
+			str.append('\n');
 		}
-		return str;
+		return str.toString();
 	}
 	/**
-	 * 
+	 *
 	 * @return false if there are no more valid moves to make
 	 */
 	public boolean movesRemaining() {
-		int col = 0;
-		while(col < numCols ) {
-			if(board[0][col] == Piece.EMPTY) {
-				return true;
-			}
-			col++;
+		return ((redMask | yellowMask) & topMask) != topMask;
+	}
+
+	/**
+	 * @return the number of pieces on the board
+	 */
+	public int getPieceCount() {
+		return Long.bitCount(redMask | yellowMask);
+	}
+
+	/**
+	 * @return the column of the most recent placePiece that has not been undone, or -1 if there is none
+	 */
+	public int getLastMove() {
+		return moveCount > 0 ? moves[moveCount - 1] : -1;
+	}
+
+	/**
+	 * @return the piece placed by the most recent move, or null if there is none
+	 */
+	public Piece getLastPiece() {
+		int col = getLastMove();
+		if(col < 0) {
+			return null;
 		}
-		return false;
+		return getPiece(numRows - heights[col], col);
 	}
-	
+
+	/**
+	 * Determines if the most recent move made 4 in a row. Only the piece that made the last move can have just
+	 * won, so this is all a game needs to check after each move.
+	 * @return true if the last move won the game
+	 */
+	public boolean lastMoveWon() {
+		Piece p = getLastPiece();
+		return p != null && isWin(p);
+	}
+
+	/**
+	 * Determines if the given piece has 4 in a row anywhere on the board. Each of the four directions is a fixed
+	 * shift of the bitboard, so this costs the same few operations whatever the size of the board.
+	 * @param p
+	 * @return true if p has 4 in a row
+	 */
+	public boolean isWin(Piece p) {
+		long mask = p == Piece.RED ? redMask : p == Piece.YELLOW ? yellowMask : 0;
+		return Bitboard.hasFour(mask, 1) // vertical
+				|| Bitboard.hasFour(mask, colBits) // horizontal
+				|| Bitboard.hasFour(mask, colBits - 1) // down and to the right
+				|| Bitboard.hasFour(mask, colBits + 1); // up and to the right
+	}
+
+	/**
+	 * @return the sum of WINDOW_VALUES over every line of 4 cells, positive when red has the better chances
+	 */
+	public int getWindowScore() {
+		return windowScore;
+	}
+
+	/**
+	 * @return the Zobrist hash of the current position. Equal positions have equal hashes regardless of the
+	 * order in which their pieces were placed.
+	 */
+	public long getHash() {
+		return hash;
+	}
+
+	/**
+	 * @return the Zobrist hash of this position flipped left to right
+	 */
+	public long getMirrorHash() {
+		return mirrorHash;
+	}
+
+	/**
+	 * A position and its mirror image play out the same way, so searches can store and look up results under
+	 * whichever of the two hashes is smaller. Moves stored that way must be flipped with mirrorColumn when
+	 * isMirrored is true.
+	 * @return the smaller of getHash and getMirrorHash
+	 */
+	public long getCanonicalHash() {
+		return Math.min(hash, mirrorHash);
+	}
+
 	/**
-	 * 
+	 * @return true if getCanonicalHash is the hash of the mirror image rather than of this position
+	 */
+	public boolean isMirrored() {
+		return mirrorHash < hash;
+	}
+
+	/**
+	 * @return true if the position is its own mirror image, so that mirrored moves lead to equal positions
+	 */
+	public boolean isSymmetric() {
+		return mirrorHash == hash;
+	}
+
+	/**
+	 * @param col
+	 * @return the column that col turns into when the board is flipped left to right
+	 */
+	public int mirrorColumn(int col) {
+		return numCols - 1 - col;
+	}
+
+	/**
+	 *
 	 * @param row
 	 * @param col
-	 * @return the piece at the given row, col. Null if empty
+	 * @return the piece at the given row, col. Null if off the board
 	 */
 	public Piece getPiece(int row, int col) {
 		if(isOnBoard(row, col)) {
-		return board[row][col];
+			long b = bit(row, col);
+			if((redMask & b) != 0) {
+				return Piece.RED;
+			}
+			if((yellowMask & b) != 0) {
+				return Piece.YELLOW;
+			}
+			return Piece.EMPTY;
 		}
 		return null;
 	}
-	
+
 
 }
@@ -8,6 +8,11 @@ import java.util.Scanner;
  */
 public class CliPlayer extends Player{
 
+	/**
+	 * One reader for the console shared by all players, so that nothing it has buffered is lost between moves.
+	 */
+	static final Scanner IN = new Scanner(System.in);
+
 	public CliPlayer(Piece p) {
 		super(p);
 		
@@ -18,9 +23,9 @@ public class CliPlayer extends Player{
 		boolean valid = false;
 		int response = -1;
 		while(!valid) {
-			System.out.println(super.piece.toString() + " player: pick a column!");
-			Scanner sc = new Scanner(System.in);
-			response = Integer.parseInt(sc.nextLine());
+			System.out.print(super.piece);
+			System.out.println(" player: pick a column!");
+			response = Integer.parseInt(IN.nextLine());
 			if(response > -1 && response < b.numCols) {
 				valid = true;
 			}
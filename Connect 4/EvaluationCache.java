@@ -0,0 +1,287 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Search results kept in a file, so that they outlive the JVM that found them and are shared by every JVM on the
+ * host that opens the same file. StrongAI uses it behind its own TranspositionTable for the positions near the
+ * root of its searches, and plays a position it has already searched as deeply without searching at all.
+ *
+ * Entries are packed the same way as a TranspositionTable's and read with its value, draft, bound and move. The
+ * file has a fixed size and is memory-mapped, so every process reads and writes the same pages of the page
+ * cache, which the operating system writes back to the file on its own: the entries survive the processes that
+ * wrote them, and with flush the host too. As in TranspositionTable each entry is two longs, the data and the
+ * hash xor'd with the data, so an entry half written by another thread or process reads as missing. Nothing is
+ * locked; two writers racing for a slot can only cost one of them its entry.
+ *
+ * Entries live in buckets of four, a cache line each. A new entry replaces that of the same position unless it
+ * was searched deeper, or else the one of the bucket least worth keeping: an empty slot, then the shallowest
+ * search, then of equally deep ones the one from the oldest session. Each open starts a new session.
+ *
+ * Layout, all big-endian: the magic number, the format version, the number of entries and the number of
+ * sessions so far, as ints, padded to 64 bytes; then the entries, each the hash xor'd with the data and the data
+ * as longs.
+ *
+ * Run this class to create a cache or to see what one holds.
+ *
+ * @author Andrew
+ *
+ */
+public class EvaluationCache implements Closeable {
+
+	static final int MAGIC = 0x43344543; // "C4EC"
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 64;
+	static final int ENTRY_BYTES = 16;
+	static final int WAYS = 4;
+
+	/**
+	 * Where Game looks for a cache.
+	 */
+	public static final String DEFAULT_FILE = "connect4.cache";
+
+	/**
+	 * Entries of a cache created without a size, 64MB.
+	 */
+	public static final int DEFAULT_CAPACITY = 1 << 22;
+
+	MappedByteBuffer entries;
+	int capacity;
+	int bucketMask;
+	int session;
+
+	/**
+	 * Counts for this process, updated by every thread searching with the cache.
+	 */
+	LongAdder hits = new LongAdder();
+	LongAdder misses = new LongAdder();
+	LongAdder stores = new LongAdder();
+
+	EvaluationCache(MappedByteBuffer buffer, int session) throws IOException {
+		if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			throw new IOException("Not an evaluation cache");
+		}
+		capacity = buffer.getInt(8);
+		if (capacity < WAYS || Integer.bitCount(capacity) != 1
+				|| (long) capacity * ENTRY_BYTES + HEADER_BYTES != buffer.capacity()) {
+			throw new IOException("Evaluation cache is truncated");
+		}
+		bucketMask = capacity / WAYS - 1;
+		this.session = session & 0xff;
+		entries = buffer;
+	}
+
+	/**
+	 * Maps a cache into memory, creating the file if there is none. Several processes may open the same file at
+	 * once.
+	 *
+	 * @param file
+	 * @param capacity the number of entries of a new cache, rounded down to a power of two; an existing cache
+	 *                 keeps its own
+	 * @return the cache
+	 */
+	public static EvaluationCache open(File file, int capacity) throws IOException {
+		if (capacity < WAYS || capacity > (Integer.MAX_VALUE - HEADER_BYTES) / ENTRY_BYTES) {
+			throw new IllegalArgumentException("Capacity out of range: " + capacity);
+		}
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		try {
+			// held while the file is created or its session count bumped, so two processes never do it at once
+			FileLock lock = channel.lock();
+			try {
+				long size = channel.size();
+				MappedByteBuffer buffer;
+				if (size == 0) {
+					capacity = Integer.highestOneBit(capacity);
+					buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+							HEADER_BYTES + (long) capacity * ENTRY_BYTES);
+					buffer.putInt(0, MAGIC);
+					buffer.putInt(4, VERSION);
+					buffer.putInt(8, capacity);
+				} else {
+					buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+				}
+				int session = buffer.capacity() < HEADER_BYTES ? 0 : buffer.getInt(12) + 1;
+				EvaluationCache cache = new EvaluationCache(buffer, session);
+				buffer.putInt(12, session);
+				return cache;
+			} finally {
+				lock.release();
+			}
+		} finally {
+			// the mapping stays valid after the channel is closed
+			channel.close();
+		}
+	}
+
+	/**
+	 * @param file
+	 * @return the cache, or null if the file does not exist or is not a cache
+	 */
+	public static EvaluationCache openIfPresent(File file) {
+		if (!file.isFile()) {
+			return null;
+		}
+		try {
+			return open(file, DEFAULT_CAPACITY);
+		} catch (IOException e) {
+			System.err.println("Ignoring evaluation cache " + file + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	private int firstSlot(long hash) {
+		return ((int) hash & bucketMask) * WAYS;
+	}
+
+	/**
+	 * Looks up a position.
+	 *
+	 * @param hash
+	 * @return the packed entry, to be read with TranspositionTable.value, draft, bound and move, or
+	 *         TranspositionTable.MISS if not found
+	 */
+	public long probe(long hash) {
+		int first = firstSlot(hash);
+		for (int slot = first; slot < first + WAYS; slot++) {
+			int at = HEADER_BYTES + slot * ENTRY_BYTES;
+			long entry = entries.getLong(at + 8);
+			if (entry != TranspositionTable.MISS && (entries.getLong(at) ^ entry) == hash) {
+				hits.increment();
+				return entry;
+			}
+		}
+		misses.increment();
+		return TranspositionTable.MISS;
+	}
+
+	/**
+	 * Stores the result of a search, see TranspositionTable.store.
+	 */
+	public void store(long hash, int value, int draft, int bound, int move) {
+		int first = firstSlot(hash);
+		int victim = first;
+		int victimWorth = Integer.MAX_VALUE;
+		for (int slot = first; slot < first + WAYS; slot++) {
+			int at = HEADER_BYTES + slot * ENTRY_BYTES;
+			long old = entries.getLong(at + 8);
+			if (old == TranspositionTable.MISS) {
+				if (victimWorth >= 0) {
+					victim = slot;
+					victimWorth = -1;
+				}
+				continue;
+			}
+			if ((entries.getLong(at) ^ old) == hash) {
+				if (TranspositionTable.draft(old) > draft) {
+					return;
+				}
+				victim = slot;
+				break;
+			}
+			int age = (session - TranspositionTable.generation(old)) & 0xff;
+			int worth = TranspositionTable.draft(old) * 256 + 255 - age;
+			if (worth < victimWorth) {
+				victim = slot;
+				victimWorth = worth;
+			}
+		}
+		long entry = TranspositionTable.entry(value, draft, bound, move, session);
+		int at = HEADER_BYTES + victim * ENTRY_BYTES;
+		entries.putLong(at + 8, entry);
+		entries.putLong(at, hash ^ entry);
+		stores.increment();
+	}
+
+	/**
+	 * @return the number of entries in use, counted by reading them all
+	 */
+	public int size() {
+		int used = 0;
+		for (int slot = 0; slot < capacity; slot++) {
+			if (entries.getLong(HEADER_BYTES + slot * ENTRY_BYTES + 8) != TranspositionTable.MISS) {
+				used++;
+			}
+		}
+		return used;
+	}
+
+	/**
+	 * @return the maximum number of entries
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return the number of lookups by this process that found their position
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return the number of lookups by this process that did not find their position
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return the number of entries written by this process
+	 */
+	public long getStores() {
+		return stores.sum();
+	}
+
+	/**
+	 * Writes the entries out to the file, so that they survive the host going down as well as the process.
+	 */
+	public void flush() {
+		entries.force();
+	}
+
+	/**
+	 * Flushes the cache. The mapping itself is let go of by the garbage collector.
+	 */
+	@Override
+	public void close() {
+		flush();
+	}
+
+	public String toString() {
+		return "capacity " + capacity + ", hits " + getHits() + ", misses " + getMisses() + ", stores " + getStores();
+	}
+
+	/**
+	 * Usage: java EvaluationCache [file] [capacity]
+	 *
+	 * Creates the cache if the file does not exist, connect4.cache with 4M entries by default, and prints how
+	 * many entries are in use, by the depth they were searched to.
+	 */
+	public static void main(String[] args) throws IOException {
+		File file = new File(args.length > 0 ? args[0] : DEFAULT_FILE);
+		int capacity = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_CAPACITY;
+		EvaluationCache cache = open(file, capacity);
+		long[] drafts = new long[256];
+		for (int slot = 0; slot < cache.capacity; slot++) {
+			long entry = cache.entries.getLong(HEADER_BYTES + slot * ENTRY_BYTES + 8);
+			if (entry != TranspositionTable.MISS) {
+				drafts[TranspositionTable.draft(entry)]++;
+			}
+		}
+		System.out.println(file + ": " + cache.size() + " of " + cache.capacity + " entries in use, session "
+				+ cache.session);
+		for (int draft = 0; draft < drafts.length; draft++) {
+			if (drafts[draft] > 0) {
+				System.out.println("  depth " + draft + ": " + drafts[draft]);
+			}
+		}
+	}
+}
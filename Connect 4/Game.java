@@ -13,87 +13,115 @@ public class Game {
 	boolean playerOneTurn = true;
 
 	// Can support AI v AI play, as well as 2 player play.
-	Player player1 = new CliPlayer(Piece.RED); // these players can be interchanged for any type of player.
-	Player player2 = new StrongAI(Piece.YELLOW);
+	Player player1;
+	Player player2;
 
 	/**
-	 * Checks if a player has won the game (4 in a row) and returns that player if
-	 * so.
+	 * Where finished games are recorded, or null.
+	 */
+	GameRecordWriter recorder;
+	String player1Name;
+	String player2Name;
+	/**
+	 * The record of the game being written out, and the time taken by each move when no one else wants it,
+	 * reused from game to game.
+	 */
+	GameRecord record = new GameRecord();
+	long[] moveNanos;
+
+	/**
+	 * A human against StrongAI, which plays from the opening book in connect4.book, the tablebase in connect4.tb
+	 * and the evaluation cache in connect4.cache if there are ones and ponders its next move while the human
+	 * thinks.
+	 */
+	public Game() {
+		this(new CliPlayer(Piece.RED), new StrongAI(Piece.YELLOW, 1 << 20));
+		StrongAI ai = (StrongAI) player2;
+		ai.setOpeningBook(OpeningBook.openIfPresent(new java.io.File(OpeningBook.DEFAULT_FILE)));
+		ai.setTablebase(Tablebase.openIfPresent(new java.io.File(Tablebase.DEFAULT_FILE)));
+		ai.setEvaluationCache(EvaluationCache.openIfPresent(new java.io.File(EvaluationCache.DEFAULT_FILE)));
+		ai.setPondering(true);
+	}
+
+	/**
+	 * @param player1 the player that moves first
+	 * @param player2 the player that moves second
+	 */
+	public Game(Player player1, Player player2) {
+		this.player1 = player1; // these players can be interchanged for any type of player.
+		this.player2 = player2;
+	}
+
+	/**
+	 * Records every game played from now on, with the players named after their classes.
 	 * 
-	 * @return the winning player, null otherwise.
+	 * @param recorder where to append the games, or null to stop recording
 	 */
-	public Player checkWin() {
-		// Check horizontals
-		for (int row = BOARD_ROWS - 1; row > -1; row--) {
-			for (int startCol = 0; startCol < BOARD_COLS - 3; startCol++) {
-				int streak = 1;
-				int col = startCol;
-				while (col < BOARD_COLS - 1 && board.getPiece(row, col) == board.getPiece(row, col + 1)) {
-					streak++;
-					col++;
-				}
-				if (streak > 3) {
-					if (board.getPiece(row, startCol) == player1.getPieceType())
-						return player1;
-					else if (board.getPiece(row, startCol) == player2.getPieceType())
-						return player2;
-				}
-			}
-		}
+	public void setRecorder(GameRecordWriter recorder) {
+		setRecorder(recorder, player1.getClass().getSimpleName(), player2.getClass().getSimpleName());
+	}
 
-		// Check verticals
-		for (int col = 0; col < BOARD_COLS; col++) {
-			for (int startRow = 0; startRow < BOARD_ROWS - 3; startRow++) {
-				int streak = 1;
-				int row = startRow;
-				while (row < BOARD_ROWS - 1 && board.getPiece(row, col) == board.getPiece(row + 1, col)) {
-					streak++;
-					row++;
-				}
-				if (streak > 3) {
-					if (board.getPiece(startRow, col) == player1.getPieceType())
-						return player1;
-					else if (board.getPiece(startRow, col) == player2.getPieceType())
-						return player2;
-				}
-			}
-		}
+	/**
+	 * @param recorder    where to append the games, or null to stop recording
+	 * @param player1Name name recorded for the player that moves first
+	 * @param player2Name name recorded for the other player
+	 */
+	public void setRecorder(GameRecordWriter recorder, String player1Name, String player2Name) {
+		this.recorder = recorder;
+		this.player1Name = player1Name;
+		this.player2Name = player2Name;
+	}
 
-		// Check diagonals
-		// bottom left corner + up/right
-		int startRow;
-		int startCol;
-		for (startRow = 4; startRow < BOARD_ROWS; startRow++) {
-			for (startCol = 0; startCol < 4; startCol++) {
-				if (board.getPiece(startRow, startCol) != Piece.EMPTY
-						&& board.getPiece(startRow, startCol) == board.getPiece(startRow - 1, startCol + 1)
-						&& board.getPiece(startRow - 1, startCol + 1) == board.getPiece(startRow - 2, startCol + 2)
-						&& board.getPiece(startRow - 2, startCol + 2) == board.getPiece(startRow - 3, startCol + 3)) {
-					if (player1.getPieceType() == board.getPiece(startRow, startCol)) {
-						return player1;
-					}
-					return player2;
-				}
-			}
+	/**
+	 * Appends the game on the board to the recorder, if there is one. Moves already on the board when play
+	 * started are recorded as taking no time.
+	 * 
+	 * @param startMillis when play started
+	 * @param firstMove   the number of pieces on the board when play started
+	 * @param moveNanos   the time taken by each move since then
+	 */
+	void record(long startMillis, int firstMove, long[] moveNanos) {
+		if (recorder == null) {
+			return;
 		}
-		// top left corner and down/right
-		for (startRow = 0; startRow < 3; startRow++) {
-			for (startCol = 0; startCol < 4; startCol++) {
-				if (board.getPiece(startRow, startCol) != Piece.EMPTY
-						&& board.getPiece(startRow, startCol) == board.getPiece(startRow + 1, startCol + 1)
-						&& board.getPiece(startRow + 1, startCol + 1) == board.getPiece(startRow + 2, startCol + 2)
-						&& board.getPiece(startRow + 2, startCol + 2) == board.getPiece(startRow + 3, startCol + 3)) {
-					if (player1.getPieceType() == board.getPiece(startRow, startCol)) {
-						return player1;
-					}
-					return player2;
-				}
-			}
+		record.start(board, startMillis);
+		record.setPlayers(player1Name, player2Name);
+		for (int i = 0; i < board.moveCount; i++) {
+			record.addMove(board.moves[i], i < firstMove ? 0 : moveNanos[i - firstMove]);
+		}
+		record.setResult(board);
+		try {
+			recorder.write(record);
+		} catch (java.io.IOException e) {
+			System.err.println("Could not record the game: " + e.getMessage());
 		}
+	}
 
+	/**
+	 * Checks if a player has won the game (4 in a row) and returns that player if
+	 * so. Only the last move can have won, since the game stops at the first win.
+	 * 
+	 * @return the winning player, null otherwise.
+	 */
+	public Player checkWin() {
+		if (board.lastMoveWon()) {
+			if (board.getLastPiece() == player1.getPieceType())
+				return player1;
+			return player2;
+		}
 		return null;
 	}
 
+	/**
+	 * @return the buffer for the time taken by each move, made again only if the board changed size
+	 */
+	long[] timingBuffer() {
+		if (moveNanos == null || moveNanos.length != board.numRows * board.numCols) {
+			moveNanos = new long[board.numRows * board.numCols];
+		}
+		return moveNanos;
+	}
+
 	/**
 	 * Makes a complete set of moves, one from each player if possible.
 	 */
@@ -115,13 +143,19 @@ public class Game {
 	 */
 	public void playConsoleGame() {
 		Player winner = null;
+		long startMillis = System.currentTimeMillis();
+		int firstMove = board.getPieceCount();
+		long[] moveNanos = timingBuffer();
 		while (winner == null && board.movesRemaining()) {
+			long start = System.nanoTime();
 			makeMoves();
+			moveNanos[board.getPieceCount() - 1 - firstMove] = System.nanoTime() - start;
 			playerOneTurn = !playerOneTurn;
 			winner = checkWin();
 			System.out.println(board);
 			System.out.println("-----------------------------");
 		}
+		record(startMillis, firstMove, moveNanos);
 		if (winner != null) {
 			System.out.println(winner + " wins!");
 		} else {
@@ -129,9 +163,51 @@ public class Game {
 		}
 	}
 
-	public static void main(String[] args) {
-		Game g = new Game();
-		g.playConsoleGame();
+	/**
+	 * Plays the rest of the game without any console output, for running many games in a row.
+	 * 
+	 * @param moveNanos if not null, receives the time each player took to pick each move, in order
+	 * @return the winning player, null if tied
+	 */
+	public Player playHeadlessGame(long[] moveNanos) {
+		Player winner = null;
+		int moves = 0;
+		long startMillis = System.currentTimeMillis();
+		int firstMove = board.getPieceCount();
+		if (moveNanos == null && recorder != null) {
+			moveNanos = timingBuffer();
+		}
+		while (winner == null && board.movesRemaining()) {
+			Player current = playerOneTurn ? player1 : player2;
+			long start = System.nanoTime();
+			while (!board.placePiece(current.getMove(board), current.getPieceType())) {
+			}
+			if (moveNanos != null) {
+				moveNanos[moves] = System.nanoTime() - start;
+			}
+			moves++;
+			playerOneTurn = !playerOneTurn;
+			winner = checkWin();
+		}
+		record(startMillis, firstMove, moveNanos);
+		return winner;
+	}
 
+	/**
+	 * Usage: java Game [records file]
+	 * 
+	 * The game is appended to the records file if one is given.
+	 */
+	public static void main(String[] args) throws java.io.IOException {
+		Game g = new Game();
+		GameRecordWriter recorder = args.length > 0 ? new GameRecordWriter(new java.io.File(args[0])) : null;
+		g.setRecorder(recorder);
+		try {
+			g.playConsoleGame();
+		} finally {
+			if (recorder != null) {
+				recorder.close();
+			}
+		}
 	}
 }
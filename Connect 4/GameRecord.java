@@ -0,0 +1,246 @@
+import java.util.Arrays;
+
+/**
+ * One finished (or abandoned) game, as stored by GameRecordWriter and read back by GameRecordReader. The same
+ * format holds Connect 4 games, as the columns played, and tic-tac-toe games, as the squares played numbered
+ * row by row.
+ *
+ * A file of records starts with the magic number and the format version, as big-endian ints, and then holds the
+ * records back to back, oldest first. Each record is, all big-endian:
+ * <pre>
+ * length          short  bytes in the whole record, including this
+ * game            byte   CONNECT_4 or TIC_TAC_TOE
+ * rows, cols      byte   board size
+ * win length      byte   number in a row needed to win
+ * result          byte   DRAW, FIRST_WON, SECOND_WON or UNFINISHED
+ * bits per move   byte
+ * moves           short  number of moves
+ * start           long   when the game started, in milliseconds since the epoch
+ * first, second   int    time each player spent choosing its moves, in microseconds
+ * players         byte   length of the first player's name, then the name in UTF-8, then the same for the second
+ * moves                  packed bits per move bits each, least significant bits first, padded to a whole byte
+ * </pre>
+ * Bits per move is the fewest that hold every column, or every square, so a Connect 4 move takes 3 bits and a
+ * classic tic-tac-toe move 4. A standard Connect 4 game of 42 moves is about 45 bytes with short player names.
+ *
+ * A GameRecord is reused from game to game rather than created for each one, and is not thread safe.
+ *
+ * @author Andrew
+ *
+ */
+public class GameRecord {
+
+	static final int MAGIC = 0x47524543; // "GREC"
+	static final int VERSION = 1;
+	static final int FILE_HEADER_BYTES = 8;
+	/**
+	 * Bytes in a record before the player names.
+	 */
+	static final int FIXED_BYTES = 26;
+	static final int MAX_BYTES = 0xFFFF;
+	static final int MAX_NAME_BYTES = 0xFF;
+
+	public static final int CONNECT_4 = 0;
+	public static final int TIC_TAC_TOE = 1;
+
+	public static final int DRAW = 0;
+	public static final int FIRST_WON = 1;
+	public static final int SECOND_WON = 2;
+	public static final int UNFINISHED = 3;
+
+	int game;
+	int rows;
+	int cols;
+	int winLength;
+	int result = UNFINISHED;
+	long startMillis;
+	long firstMicros;
+	long secondMicros;
+	String firstPlayer = "";
+	String secondPlayer = "";
+	int[] moves = new int[64];
+	int moveCount;
+
+	/**
+	 * Starts a new game on a record, forgetting the last one.
+	 *
+	 * @param game        CONNECT_4 or TIC_TAC_TOE
+	 * @param rows
+	 * @param cols
+	 * @param winLength   number in a row needed to win
+	 * @param startMillis when the game started, as System.currentTimeMillis
+	 */
+	public void start(int game, int rows, int cols, int winLength, long startMillis) {
+		if (rows < 1 || rows > 255 || cols < 1 || cols > 255 || winLength < 1 || winLength > 255) {
+			throw new IllegalArgumentException("Board too big to record: " + rows + "x" + cols);
+		}
+		this.game = game;
+		this.rows = rows;
+		this.cols = cols;
+		this.winLength = winLength;
+		this.startMillis = startMillis;
+		result = UNFINISHED;
+		firstMicros = 0;
+		secondMicros = 0;
+		moveCount = 0;
+	}
+
+	/**
+	 * Starts a Connect 4 game on the size of board given.
+	 */
+	public void start(Board b, long startMillis) {
+		start(CONNECT_4, b.numRows, b.numCols, 4, startMillis);
+	}
+
+	/**
+	 * @param first  name of the player that moved first
+	 * @param second name of the other player
+	 */
+	public void setPlayers(String first, String second) {
+		firstPlayer = first;
+		secondPlayer = second;
+	}
+
+	/**
+	 * Adds the next move of the game.
+	 *
+	 * @param move  the column played for Connect 4, or the square, row * cols + col, for tic-tac-toe
+	 * @param nanos time the player took to choose it, added to its total
+	 */
+	public void addMove(int move, long nanos) {
+		if (move < 0 || move >= choices()) {
+			throw new IllegalArgumentException("No such move: " + move);
+		}
+		if (moveCount == moves.length) {
+			moves = Arrays.copyOf(moves, moveCount * 2);
+		}
+		if (moveCount % 2 == 0) {
+			firstMicros += nanos / 1000;
+		} else {
+			secondMicros += nanos / 1000;
+		}
+		moves[moveCount++] = move;
+	}
+
+	/**
+	 * @param result DRAW, FIRST_WON, SECOND_WON or UNFINISHED
+	 */
+	public void setResult(int result) {
+		if (result < DRAW || result > UNFINISHED) {
+			throw new IllegalArgumentException("No such result: " + result);
+		}
+		this.result = result;
+	}
+
+	/**
+	 * Sets the result from the final position of a Connect 4 game.
+	 */
+	public void setResult(Board b) {
+		if (b.lastMoveWon()) {
+			result = b.getPieceCount() % 2 == 1 ? FIRST_WON : SECOND_WON;
+		} else {
+			result = b.movesRemaining() ? UNFINISHED : DRAW;
+		}
+	}
+
+	/**
+	 * @return the number of different moves, columns or squares
+	 */
+	int choices() {
+		return game == CONNECT_4 ? cols : rows * cols;
+	}
+
+	/**
+	 * @return the bits needed to store one move
+	 */
+	int bitsPerMove() {
+		return Math.max(1, 32 - Integer.numberOfLeadingZeros(choices() - 1));
+	}
+
+	public int getGame() {
+		return game;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public int getCols() {
+		return cols;
+	}
+
+	public int getWinLength() {
+		return winLength;
+	}
+
+	public int getResult() {
+		return result;
+	}
+
+	public long getStartMillis() {
+		return startMillis;
+	}
+
+	public long getFirstMicros() {
+		return firstMicros;
+	}
+
+	public long getSecondMicros() {
+		return secondMicros;
+	}
+
+	public String getFirstPlayer() {
+		return firstPlayer;
+	}
+
+	public String getSecondPlayer() {
+		return secondPlayer;
+	}
+
+	public int getMoveCount() {
+		return moveCount;
+	}
+
+	public int getMove(int i) {
+		return moves[i];
+	}
+
+	/**
+	 * Plays a Connect 4 game on a board, which is cleared first and must be the size of the game's.
+	 *
+	 * @return false if a move was illegal, leaving the board at the position before it
+	 */
+	public boolean replay(Board b) {
+		return replay(b, moves, moveCount);
+	}
+
+	/**
+	 * Plays the first count moves on a board, see replay(Board); GameRecordReader replays the same way.
+	 */
+	static boolean replay(Board b, int[] moves, int count) {
+		b.clearBoard();
+		for (int i = 0; i < count; i++) {
+			if (!b.placePiece(moves[i], i % 2 == 0 ? Piece.RED : Piece.YELLOW)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(game == CONNECT_4 ? "connect4 " : "tictactoe ").append(rows).append('x').append(cols);
+		sb.append(' ').append(firstPlayer).append(" v ").append(secondPlayer).append(' ');
+		sb.append(result == DRAW ? "draw" : result == FIRST_WON ? "1-0" : result == SECOND_WON ? "0-1" : "unfinished");
+		sb.append(' ');
+		for (int i = 0; i < moveCount; i++) {
+			if (game == CONNECT_4) {
+				sb.append(moves[i] + 1);
+			} else {
+				sb.append(i == 0 ? "" : ",").append(moves[i]);
+			}
+		}
+		return sb.toString();
+	}
+}
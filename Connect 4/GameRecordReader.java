@@ -0,0 +1,305 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the games in a file written by GameRecordWriter, see GameRecord for the format.
+ *
+ * The file is memory-mapped, so reading goes straight to the page cache. The reader is a cursor over the
+ * records: next moves to the following record and the getters read the current one in place, so going through
+ * millions of games creates no garbage unless the player names are asked for. read copies the current record
+ * into a GameRecord instead, when it has to outlive the cursor.
+ *
+ * Files bigger than a single mapping are mapped in segments which overlap by the longest possible record, so
+ * every record lies whole inside the segment it starts in. The reader sees the file as it was when opened, and
+ * stops before a partial record at the end.
+ *
+ * Not thread safe, use one reader per thread.
+ *
+ * @author Andrew
+ *
+ */
+public class GameRecordReader implements Closeable {
+
+	static final long SEGMENT_BYTES = 1L << 30;
+
+	FileChannel channel;
+	MappedByteBuffer[] segments;
+	long size;
+
+	/**
+	 * Offset of the current record in the file, or of the first one before next is called.
+	 */
+	long position = GameRecord.FILE_HEADER_BYTES;
+	/**
+	 * Offset of the record after the current one.
+	 */
+	long nextPosition = GameRecord.FILE_HEADER_BYTES;
+	ByteBuffer current;
+	int offset;
+	int namesOffset;
+	int movesOffset;
+	/**
+	 * The moves of the current record, unpacked for replay.
+	 */
+	int[] moves = new int[64];
+
+	/**
+	 * Maps a file of records into memory.
+	 *
+	 * @param file
+	 */
+	public GameRecordReader(File file) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			size = channel.size();
+			segments = new MappedByteBuffer[(int) Math.max(1, (size + SEGMENT_BYTES - 1) / SEGMENT_BYTES)];
+			for (int i = 0; i < segments.length; i++) {
+				long start = i * SEGMENT_BYTES;
+				long length = Math.min(size - start, SEGMENT_BYTES + GameRecord.MAX_BYTES);
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.max(0, length));
+			}
+			if (size < GameRecord.FILE_HEADER_BYTES || segments[0].getInt(0) != GameRecord.MAGIC) {
+				throw new IOException("Not a file of game records");
+			}
+			if (segments[0].getInt(4) != GameRecord.VERSION) {
+				throw new IOException("Unsupported game record version " + segments[0].getInt(4));
+			}
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Moves to the next record.
+	 *
+	 * @return false if there are no more
+	 */
+	public boolean next() {
+		if (nextPosition + 2 > size) {
+			return false;
+		}
+		ByteBuffer segment = segments[(int) (nextPosition / SEGMENT_BYTES)];
+		int at = (int) (nextPosition % SEGMENT_BYTES);
+		int length = segment.getShort(at) & 0xFFFF;
+		if (length < GameRecord.FIXED_BYTES + 2 || nextPosition + length > size) {
+			return false;
+		}
+		position = nextPosition;
+		nextPosition += length;
+		current = segment;
+		offset = at;
+		namesOffset = at + GameRecord.FIXED_BYTES;
+		movesOffset = namesOffset + 1 + (current.get(namesOffset) & 0xFF);
+		movesOffset += 1 + (current.get(movesOffset) & 0xFF);
+		return true;
+	}
+
+	/**
+	 * @return the offset of the current record in the file, to come back to it with seek
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	/**
+	 * Makes the record at a position returned by getPosition the next one.
+	 *
+	 * @param position
+	 */
+	public void seek(long position) {
+		if (position < GameRecord.FILE_HEADER_BYTES || position > size) {
+			throw new IllegalArgumentException("Outside the file: " + position);
+		}
+		nextPosition = position;
+		current = null;
+	}
+
+	private void checkCurrent() {
+		if (current == null) {
+			throw new IllegalStateException("No current record, call next first");
+		}
+	}
+
+	public int getGame() {
+		checkCurrent();
+		return current.get(offset + 2);
+	}
+
+	public int getRows() {
+		checkCurrent();
+		return current.get(offset + 3) & 0xFF;
+	}
+
+	public int getCols() {
+		checkCurrent();
+		return current.get(offset + 4) & 0xFF;
+	}
+
+	public int getWinLength() {
+		checkCurrent();
+		return current.get(offset + 5) & 0xFF;
+	}
+
+	/**
+	 * @return GameRecord.DRAW, FIRST_WON, SECOND_WON or UNFINISHED
+	 */
+	public int getResult() {
+		checkCurrent();
+		return current.get(offset + 6);
+	}
+
+	public int getMoveCount() {
+		checkCurrent();
+		return current.getShort(offset + 8) & 0xFFFF;
+	}
+
+	public long getStartMillis() {
+		checkCurrent();
+		return current.getLong(offset + 10);
+	}
+
+	public long getFirstMicros() {
+		checkCurrent();
+		return current.getInt(offset + 18) & 0xFFFFFFFFL;
+	}
+
+	public long getSecondMicros() {
+		checkCurrent();
+		return current.getInt(offset + 22) & 0xFFFFFFFFL;
+	}
+
+	public String getFirstPlayer() {
+		checkCurrent();
+		return name(namesOffset);
+	}
+
+	public String getSecondPlayer() {
+		checkCurrent();
+		return name(namesOffset + 1 + (current.get(namesOffset) & 0xFF));
+	}
+
+	private String name(int at) {
+		byte[] bytes = new byte[current.get(at) & 0xFF];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = current.get(at + 1 + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @param i
+	 * @return move i of the current game, a column for Connect 4 or a square for tic-tac-toe
+	 */
+	public int getMove(int i) {
+		checkCurrent();
+		int bits = current.get(offset + 7);
+		int bit = i * bits;
+		int at = movesOffset + (bit >>> 3);
+		int word = 0;
+		for (int k = 0; k * 8 < (bit & 7) + bits; k++) {
+			word |= (current.get(at + k) & 0xFF) << (8 * k);
+		}
+		return (word >>> (bit & 7)) & ((1 << bits) - 1);
+	}
+
+	/**
+	 * Plays the current Connect 4 game on a board, which is cleared first and must be the size of the game's.
+	 *
+	 * @return false if a move was illegal, leaving the board at the position before it
+	 */
+	public boolean replay(Board b) {
+		int count = getMoveCount();
+		if (count > moves.length) {
+			moves = new int[Math.max(count, moves.length * 2)];
+		}
+		for (int i = 0; i < count; i++) {
+			moves[i] = getMove(i);
+		}
+		return GameRecord.replay(b, moves, count);
+	}
+
+	/**
+	 * Copies the current record.
+	 *
+	 * @param r overwritten with the current game
+	 */
+	public void read(GameRecord r) {
+		r.start(getGame(), getRows(), getCols(), getWinLength(), getStartMillis());
+		r.setPlayers(getFirstPlayer(), getSecondPlayer());
+		int count = getMoveCount();
+		for (int i = 0; i < count; i++) {
+			r.addMove(getMove(i), 0);
+		}
+		r.firstMicros = getFirstMicros();
+		r.secondMicros = getSecondMicros();
+		r.result = getResult();
+	}
+
+	/**
+	 * Finds the end of the last whole record of a file, reading only the length of each record.
+	 *
+	 * @return the offset after the last whole record
+	 */
+	static long end(FileChannel channel) throws IOException {
+		long size = channel.size();
+		ByteBuffer header = ByteBuffer.allocate(GameRecord.FILE_HEADER_BYTES);
+		channel.read(header, 0);
+		if (size < GameRecord.FILE_HEADER_BYTES || header.getInt(0) != GameRecord.MAGIC) {
+			throw new IOException("Not a file of game records");
+		}
+		if (header.getInt(4) != GameRecord.VERSION) {
+			throw new IOException("Unsupported game record version " + header.getInt(4));
+		}
+		long position = GameRecord.FILE_HEADER_BYTES;
+		long mapped = position;
+		MappedByteBuffer segment = null;
+		while (position + 2 <= size) {
+			if (segment == null || position + 2 > mapped + segment.capacity()) {
+				mapped = position;
+				segment = channel.map(FileChannel.MapMode.READ_ONLY, mapped, Math.min(size - mapped, SEGMENT_BYTES));
+			}
+			int length = segment.getShort((int) (position - mapped)) & 0xFFFF;
+			if (length < GameRecord.FIXED_BYTES + 2 || position + length > size) {
+				break;
+			}
+			position += length;
+		}
+		return position;
+	}
+
+	@Override
+	public void close() throws IOException {
+		current = null;
+		channel.close();
+	}
+
+	/**
+	 * Usage: java GameRecordReader file
+	 *
+	 * Prints every game in the file, one per line, and then a summary of the results.
+	 */
+	public static void main(String[] args) throws IOException {
+		GameRecordReader reader = new GameRecordReader(new File(args[0]));
+		GameRecord r = new GameRecord();
+		long[] results = new long[4];
+		try {
+			while (reader.next()) {
+				reader.read(r);
+				results[r.getResult()]++;
+				System.out.println(r);
+			}
+		} finally {
+			reader.close();
+		}
+		System.out.println(results[GameRecord.FIRST_WON] + " won by the first player, "
+				+ results[GameRecord.SECOND_WON] + " by the second, " + results[GameRecord.DRAW] + " drawn, "
+				+ results[GameRecord.UNFINISHED] + " unfinished");
+	}
+}
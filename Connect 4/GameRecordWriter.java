@@ -0,0 +1,156 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Appends GameRecords to a file, see GameRecord for the format.
+ *
+ * Records are encoded into a buffer and written out a buffer at a time, so the file only ever grows by whole
+ * records. If the process died in the middle of a write the partial record at the end is cut off the next time
+ * the file is opened for writing, and GameRecordReader stops before it until then. Nothing is allocated per
+ * record apart from the bytes of the player names, which are cached while they stay the same.
+ *
+ * Writes are synchronized, so one writer can be shared by all the threads of a Tournament or a GameServer.
+ *
+ * @author Andrew
+ *
+ */
+public class GameRecordWriter implements Closeable {
+
+	static final int BUFFER_BYTES = 1 << 16;
+
+	FileChannel channel;
+	ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+	long records;
+
+	String firstName;
+	byte[] firstBytes;
+	String secondName;
+	byte[] secondBytes;
+
+	/**
+	 * Opens a file for appending, creating it if it does not exist.
+	 *
+	 * @param file
+	 */
+	public GameRecordWriter(File file) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		try {
+			long size = channel.size();
+			if (size == 0) {
+				buffer.putInt(GameRecord.MAGIC);
+				buffer.putInt(GameRecord.VERSION);
+			} else {
+				long end = GameRecordReader.end(channel);
+				if (end < size) {
+					channel.truncate(end);
+				}
+				channel.position(end);
+			}
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Adds a game to the end of the file. It reaches the file when the buffer fills up, or on flush or close.
+	 *
+	 * @param r
+	 */
+	public synchronized void write(GameRecord r) throws IOException {
+		if (!r.firstPlayer.equals(firstName)) {
+			firstName = r.firstPlayer;
+			firstBytes = nameBytes(firstName);
+		}
+		if (!r.secondPlayer.equals(secondName)) {
+			secondName = r.secondPlayer;
+			secondBytes = nameBytes(secondName);
+		}
+		int bits = r.bitsPerMove();
+		int length = GameRecord.FIXED_BYTES + 2 + firstBytes.length + secondBytes.length
+				+ (r.moveCount * bits + 7) / 8;
+		if (length > GameRecord.MAX_BYTES) {
+			throw new IllegalArgumentException("Game too long to record: " + r.moveCount + " moves");
+		}
+		if (buffer.remaining() < length) {
+			drain();
+		}
+		buffer.putShort((short) length);
+		buffer.put((byte) r.game);
+		buffer.put((byte) r.rows);
+		buffer.put((byte) r.cols);
+		buffer.put((byte) r.winLength);
+		buffer.put((byte) r.result);
+		buffer.put((byte) bits);
+		buffer.putShort((short) r.moveCount);
+		buffer.putLong(r.startMillis);
+		buffer.putInt((int) Math.min(r.firstMicros, 0xFFFFFFFFL));
+		buffer.putInt((int) Math.min(r.secondMicros, 0xFFFFFFFFL));
+		buffer.put((byte) firstBytes.length);
+		buffer.put(firstBytes);
+		buffer.put((byte) secondBytes.length);
+		buffer.put(secondBytes);
+		long pending = 0;
+		int pendingBits = 0;
+		for (int i = 0; i < r.moveCount; i++) {
+			pending |= (long) r.moves[i] << pendingBits;
+			pendingBits += bits;
+			while (pendingBits >= 8) {
+				buffer.put((byte) pending);
+				pending >>>= 8;
+				pendingBits -= 8;
+			}
+		}
+		if (pendingBits > 0) {
+			buffer.put((byte) pending);
+		}
+		records++;
+	}
+
+	private static byte[] nameBytes(String name) {
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > GameRecord.MAX_NAME_BYTES) {
+			throw new IllegalArgumentException("Player name too long to record: " + name);
+		}
+		return bytes;
+	}
+
+	private void drain() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Writes out the buffered games.
+	 */
+	public synchronized void flush() throws IOException {
+		drain();
+	}
+
+	/**
+	 * @return the number of games written since this was opened
+	 */
+	public synchronized long getRecords() {
+		return records;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (channel.isOpen()) {
+			try {
+				drain();
+			} finally {
+				channel.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,453 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hosts many games of a human against StrongAI at once over a line based TCP protocol on localhost.
+ *
+ * Every connection is its own session, with its own Board and StrongAI, and runs on its own virtual thread
+ * (on Java 21 or later; older JVMs fall back to ordinary threads). A session spends nearly all its time waiting
+ * for the client, which costs a virtual thread next to nothing. The searches themselves are handed to a fixed
+ * pool with one thread per core and a bounded queue, so however many sessions are open the CPU is never
+ * oversubscribed, and when the queue is full a move is refused straight away instead of piling up.
+ *
+ * The protocol, one command or reply per line. The client plays red and moves first.
+ * <pre>
+ * server: READY rows cols          on connecting and after NEW
+ * MOVE c  -> OK a                  the AI answered in column a, the game goes on
+ *         -> WIN                   the move won
+ *         -> LOSE a                the AI won in column a
+ *         -> DRAW a                the board is full, a is the AI move or - if there was none
+ *         -> ERR reason            nothing was played, e.g. a full column or "busy" when the server is overloaded;
+ *                                  "shutting down" when the server stopped during the search also ends the session
+ * BOARD   -> the board, one line per row, then a line with a single dot
+ * NEW     -> READY rows cols
+ * STATS   -> one line of JSON with the number of sessions and the search statistics of all of them
+ * QUIT    -> BYE, then the connection is closed
+ * </pre>
+ *
+ * If a recorder is set every game is appended to it when it ends, or when it is abandoned by NEW or by the client
+ * leaving, with the time the client took to answer each move and the time each search took.
+ *
+ * If an evaluation cache is set every session's AI shares it, and so do the AIs of any other server on the host
+ * opened on the same file: a position one of them has searched is played by the others without searching, and
+ * after a restart as well.
+ *
+ * @author Andrew
+ *
+ */
+public class GameServer {
+
+	public static final int DEFAULT_PORT = 4444;
+
+	ServerSocket server;
+	ExecutorService sessions;
+	ThreadPoolExecutor searches;
+	Thread acceptor;
+
+	/**
+	 * Search statistics of every session's AI.
+	 */
+	SearchMetrics metrics = new SearchMetrics("server");
+	AtomicInteger openSessions = new AtomicInteger();
+	AtomicInteger totalSessions = new AtomicInteger();
+	AtomicInteger rejectedSearches = new AtomicInteger();
+
+	/**
+	 * Plies searched by each session's AI.
+	 */
+	int searchDepth = StrongAI.SEARCH_DEPTH;
+
+	/**
+	 * Where games are recorded, or null.
+	 */
+	GameRecordWriter recorder;
+
+	/**
+	 * Search results shared by the sessions, or null.
+	 */
+	EvaluationCache cache;
+
+	/**
+	 * @param searchThreads number of searches run at the same time
+	 * @param queueCapacity number of searches that may wait for a thread before moves are refused
+	 */
+	public GameServer(int searchThreads, int queueCapacity) {
+		searches = new ThreadPoolExecutor(searchThreads, searchThreads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity), daemonThreads("GameServer search"),
+				new ThreadPoolExecutor.AbortPolicy());
+		sessions = newVirtualThreadExecutor();
+	}
+
+	/**
+	 * @param depth plies searched by the AI of sessions started from now on
+	 */
+	public void setSearchDepth(int depth) {
+		searchDepth = depth;
+	}
+
+	/**
+	 * @param recorder where to append the games of every session, or null
+	 */
+	public void setRecorder(GameRecordWriter recorder) {
+		this.recorder = recorder;
+	}
+
+	/**
+	 * @param cache search results for the AI of sessions started from now on to share, or null
+	 */
+	public void setEvaluationCache(EvaluationCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Starts accepting connections on the loopback interface.
+	 *
+	 * @param port the port to listen on, 0 for any free port
+	 */
+	public void start(int port) throws IOException {
+		server = new ServerSocket(port, 1024, InetAddress.getLoopbackAddress());
+		acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				acceptLoop();
+			}
+		}, "GameServer acceptor");
+		acceptor.start();
+	}
+
+	/**
+	 * @return the port being listened on
+	 */
+	public int getPort() {
+		return server.getLocalPort();
+	}
+
+	/**
+	 * Stops accepting connections and running searches. Sessions waiting for a search end at once, the others when
+	 * their clients next send a move.
+	 */
+	public void stop() throws IOException {
+		server.close();
+		sessions.shutdownNow();
+		searches.shutdownNow();
+	}
+
+	private void acceptLoop() {
+		while (!server.isClosed()) {
+			final Socket socket;
+			try {
+				socket = server.accept();
+			} catch (IOException e) {
+				if (!server.isClosed()) {
+					System.err.println("Accept failed: " + e.getMessage());
+				}
+				continue;
+			}
+			try {
+				sessions.execute(new Runnable() {
+					@Override
+					public void run() {
+						serve(socket);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				close(socket);
+			}
+		}
+	}
+
+	/**
+	 * Runs one session until the client quits or goes away.
+	 */
+	void serve(Socket socket) {
+		openSessions.incrementAndGet();
+		totalSessions.incrementAndGet();
+		Session session = null;
+		try {
+			socket.setTcpNoDelay(true);
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+					StandardCharsets.US_ASCII));
+			PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(),
+					StandardCharsets.US_ASCII));
+			session = new Session();
+			out.print(session.ready());
+			out.flush();
+			String line;
+			while ((line = in.readLine()) != null) {
+				String reply = session.handle(line.trim());
+				out.print(reply);
+				out.flush();
+				if (reply.startsWith("BYE")) {
+					break;
+				}
+				if (session.stopped) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		} catch (SocketException e) {
+			// the client went away
+		} catch (IOException e) {
+			System.err.println("Session failed: " + e.getMessage());
+		} finally {
+			if (session != null) {
+				session.record();
+			}
+			close(socket);
+			openSessions.decrementAndGet();
+		}
+	}
+
+	/**
+	 * The state of one client's game. Only ever used by the thread serving that client, apart from the search,
+	 * which runs on the search pool while that thread waits for it.
+	 */
+	class Session {
+		Board board = new Board(6, 7);
+		StrongAI ai;
+		boolean over;
+		/**
+		 * Set when the server stopped while this session waited for a search, which may still be running on the
+		 * session's AI.
+		 */
+		boolean stopped;
+		GameRecord record = new GameRecord();
+		/**
+		 * When the client was last sent a reply, as System.nanoTime.
+		 */
+		long lastReply;
+
+		Session() {
+			ai = new StrongAI(Piece.YELLOW, true);
+			ai.setVerbose(false);
+			ai.setSearchDepth(searchDepth);
+			ai.setEvaluationCache(cache);
+			ai.addSearchListener(metrics);
+			startRecord();
+		}
+
+		private void startRecord() {
+			record.start(board, System.currentTimeMillis());
+			record.setPlayers("client", "StrongAI");
+			lastReply = System.nanoTime();
+		}
+
+		/**
+		 * Appends the game so far to the recorder, unless it is empty or was already recorded.
+		 */
+		void record() {
+			if (recorder == null || record.getMoveCount() == 0) {
+				return;
+			}
+			record.setResult(board);
+			try {
+				recorder.write(record);
+			} catch (IOException e) {
+				System.err.println("Could not record the game: " + e.getMessage());
+			}
+			startRecord();
+		}
+
+		String ready() {
+			return "READY " + board.numRows + " " + board.numCols + "\n";
+		}
+
+		/**
+		 * @param command a line from the client
+		 * @return the reply, ending with a newline
+		 */
+		String handle(String command) {
+			if (command.startsWith("MOVE")) {
+				return move(command.substring(4).trim());
+			} else if (command.equals("BOARD")) {
+				return board.toString() + ".\n";
+			} else if (command.equals("NEW")) {
+				record();
+				board.clearBoard();
+				startRecord();
+				over = false;
+				return ready();
+			} else if (command.equals("STATS")) {
+				return stats() + "\n";
+			} else if (command.equals("QUIT")) {
+				return "BYE\n";
+			}
+			return "ERR unknown command\n";
+		}
+
+		private String move(String argument) {
+			if (over) {
+				return "ERR game over, send NEW\n";
+			}
+			int col;
+			try {
+				col = Integer.parseInt(argument);
+			} catch (NumberFormatException e) {
+				return "ERR expected MOVE column\n";
+			}
+			Board b = board;
+			if (col < 0 || col >= b.numCols || !b.isValidMove(col)) {
+				return "ERR illegal move\n";
+			}
+			long start = System.nanoTime();
+			b.placePiece(col, Piece.RED);
+			if (b.lastMoveWon()) {
+				record.addMove(col, start - lastReply);
+				return end("WIN\n");
+			}
+			if (!b.movesRemaining()) {
+				record.addMove(col, start - lastReply);
+				return end("DRAW -\n");
+			}
+			int reply;
+			try {
+				reply = search(ai, b);
+			} catch (RejectedExecutionException e) {
+				b.undoMove(col);
+				rejectedSearches.incrementAndGet();
+				return "ERR busy\n";
+			} catch (InterruptedException e) {
+				b.undoMove(col);
+				stopped = true;
+				return "ERR shutting down\n";
+			}
+			b.placePiece(reply, Piece.YELLOW);
+			record.addMove(col, start - lastReply);
+			lastReply = System.nanoTime();
+			record.addMove(reply, lastReply - start);
+			if (b.lastMoveWon()) {
+				return end("LOSE " + reply + "\n");
+			}
+			if (!b.movesRemaining()) {
+				return end("DRAW " + reply + "\n");
+			}
+			return "OK " + reply + "\n";
+		}
+
+		private String end(String reply) {
+			over = true;
+			record();
+			return reply;
+		}
+	}
+
+	/**
+	 * Runs a search on the search pool and waits for it. The search plays on a copy of the board, so the board
+	 * is left alone even by a search that is given up on.
+	 *
+	 * @throws RejectedExecutionException if the pool's queue is full
+	 * @throws InterruptedException if the server stopped before the search finished; the search is cancelled, but
+	 *                              may go on running until it next checks, so the AI must not be used again
+	 */
+	int search(final StrongAI ai, Board b) throws InterruptedException {
+		final Board copy = new Board(b);
+		Future<Integer> result = searches.submit(new Callable<Integer>() {
+			@Override
+			public Integer call() {
+				return ai.getMove(copy);
+			}
+		});
+		try {
+			return result.get();
+		} catch (InterruptedException e) {
+			result.cancel(true);
+			throw e;
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Search failed", e.getCause());
+		}
+	}
+
+	/**
+	 * @return the session counts and search statistics as a single line JSON object
+	 */
+	public String stats() {
+		String searched = metrics.toJson();
+		return "{\"openSessions\":" + openSessions.get() + ",\"totalSessions\":" + totalSessions.get()
+				+ ",\"rejectedSearches\":" + rejectedSearches.get() + ",\"queuedSearches\":" + searches.getQueue().size()
+				+ ",\"search\":" + searched + "}";
+	}
+
+	private static void close(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// nothing more to do
+		}
+	}
+
+	static ThreadFactory daemonThreads(final String name) {
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, name);
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+
+	/**
+	 * @return an executor starting a virtual thread per task on Java 21 or later, or an ordinary thread per task
+	 *         otherwise. Looked up by reflection so that the game still builds for older Java versions.
+	 */
+	static ExecutorService newVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool(daemonThreads("GameServer session"));
+		}
+	}
+
+	/**
+	 * Usage: java GameServer [port] [search threads] [queued searches] [records file or -] [cache file]
+	 *
+	 * Every game is appended to the records file if one is given. The last games are written out when the server
+	 * is shut down. The AIs share the evaluation cache in the cache file if one is given, which is created with
+	 * EvaluationCache.DEFAULT_CAPACITY entries if it does not exist.
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		int queue = args.length > 2 ? Integer.parseInt(args[2]) : 1024;
+		GameServer server = new GameServer(threads, queue);
+		if (args.length > 3 && !args[3].equals("-")) {
+			final GameRecordWriter recorder = new GameRecordWriter(new java.io.File(args[3]));
+			server.setRecorder(recorder);
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						recorder.close();
+					} catch (IOException e) {
+						System.err.println("Could not write the last games: " + e.getMessage());
+					}
+				}
+			}));
+		}
+		if (args.length > 4) {
+			server.setEvaluationCache(
+					EvaluationCache.open(new java.io.File(args[4]), EvaluationCache.DEFAULT_CAPACITY));
+		}
+		server.start(port);
+		System.out.println("Listening on localhost:" + server.getPort() + " with " + threads + " search threads");
+	}
+}
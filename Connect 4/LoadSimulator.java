@@ -0,0 +1,258 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Load tests a GameServer by connecting many clients at once, each playing random moves against the server's AI
+ * for a number of games, and reports the time the server took to answer each move.
+ *
+ * Without a port an in-process server is started on a free port, so that the simulator can be run on its own.
+ *
+ * @author Andrew
+ *
+ */
+public class LoadSimulator {
+
+	/**
+	 * How long a client waits before trying again after the server says it is busy.
+	 */
+	static final long BUSY_RETRY_MILLIS = 5;
+
+	int clients;
+	int games;
+	int port;
+	long seed = 1;
+
+	/**
+	 * @param port    the port of the server on localhost
+	 * @param clients number of clients connected at the same time
+	 * @param games   number of games each client plays
+	 */
+	public LoadSimulator(int port, int clients, int games) {
+		this.port = port;
+		this.clients = clients;
+		this.games = games;
+	}
+
+	/**
+	 * What one client saw.
+	 */
+	static class ClientResult {
+		long[] latencies = new long[64];
+		int moves;
+		int games;
+		int wins;
+		int losses;
+		int draws;
+		int busy;
+
+		void addLatency(long nanos) {
+			if (moves == latencies.length) {
+				latencies = Arrays.copyOf(latencies, moves * 2);
+			}
+			latencies[moves++] = nanos;
+		}
+	}
+
+	/**
+	 * Runs all the clients and waits for them to finish.
+	 *
+	 * @return a summary of the run
+	 */
+	public String run() throws IOException {
+		ExecutorService pool = GameServer.newVirtualThreadExecutor();
+		long start = System.nanoTime();
+		List<Future<ClientResult>> running = new ArrayList<Future<ClientResult>>();
+		for (int c = 0; c < clients; c++) {
+			final int client = c;
+			running.add(pool.submit(new Callable<ClientResult>() {
+				@Override
+				public ClientResult call() throws IOException {
+					return play(client);
+				}
+			}));
+		}
+		List<ClientResult> results = new ArrayList<ClientResult>();
+		try {
+			for (Future<ClientResult> f : running) {
+				results.add(f.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted");
+		} catch (ExecutionException e) {
+			throw new IOException("Client failed", e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+		long wallNanos = System.nanoTime() - start;
+		return summarize(results, wallNanos);
+	}
+
+	/**
+	 * Plays the games of one client.
+	 */
+	ClientResult play(int client) throws IOException {
+		ClientResult result = new ClientResult();
+		SplittableRandom random = new SplittableRandom(seed + client);
+		Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+		try {
+			socket.setTcpNoDelay(true);
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+					StandardCharsets.US_ASCII));
+			PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(),
+					StandardCharsets.US_ASCII));
+			String[] ready = expect(in, "READY").split(" ");
+			Board board = new Board(Integer.parseInt(ready[1]), Integer.parseInt(ready[2]));
+			for (int game = 0; game < games; game++) {
+				if (game > 0) {
+					out.println("NEW");
+					out.flush();
+					expect(in, "READY");
+					board.clearBoard();
+				}
+				String reply = "OK";
+				while (reply.startsWith("OK") || reply.startsWith("ERR busy")) {
+					int col;
+					do {
+						col = random.nextInt(board.numCols);
+					} while (!board.isValidMove(col));
+					long sent = System.nanoTime();
+					out.println("MOVE " + col);
+					out.flush();
+					reply = in.readLine();
+					long latency = System.nanoTime() - sent;
+					if (reply == null) {
+						throw new IOException("Server closed the connection");
+					}
+					if (reply.startsWith("ERR busy")) {
+						result.busy++;
+						pause(BUSY_RETRY_MILLIS);
+						continue;
+					}
+					result.addLatency(latency);
+					if (reply.startsWith("ERR")) {
+						throw new IOException("Server refused MOVE " + col + ": " + reply);
+					}
+					board.placePiece(col, Piece.RED);
+					String[] words = reply.split(" ");
+					if (words.length > 1 && !words[1].equals("-")) {
+						board.placePiece(Integer.parseInt(words[1]), Piece.YELLOW);
+					}
+				}
+				result.games++;
+				if (reply.startsWith("WIN")) {
+					result.wins++;
+				} else if (reply.startsWith("LOSE")) {
+					result.losses++;
+				} else {
+					result.draws++;
+				}
+			}
+			out.println("QUIT");
+			out.flush();
+			expect(in, "BYE");
+		} finally {
+			socket.close();
+		}
+		return result;
+	}
+
+	private static void pause(long millis) throws IOException {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted");
+		}
+	}
+
+	private static String expect(BufferedReader in, String prefix) throws IOException {
+		String line = in.readLine();
+		if (line == null || !line.startsWith(prefix)) {
+			throw new IOException("Expected " + prefix + " but got " + line);
+		}
+		return line;
+	}
+
+	static String summarize(List<ClientResult> results, long wallNanos) {
+		int moves = 0;
+		int games = 0;
+		int wins = 0;
+		int losses = 0;
+		int draws = 0;
+		int busy = 0;
+		for (ClientResult r : results) {
+			moves += r.moves;
+			games += r.games;
+			wins += r.wins;
+			losses += r.losses;
+			draws += r.draws;
+			busy += r.busy;
+		}
+		long[] all = new long[moves];
+		int n = 0;
+		for (ClientResult r : results) {
+			System.arraycopy(r.latencies, 0, all, n, r.moves);
+			n += r.moves;
+		}
+		Arrays.sort(all);
+		StringBuilder sb = new StringBuilder();
+		sb.append(results.size()).append(" clients played ").append(games).append(" games in ")
+				.append(wallNanos / 1000000).append(" ms: ");
+		sb.append(wins).append(" client wins, ").append(losses).append(" AI wins, ").append(draws).append(" draws\n");
+		sb.append(String.format("%d moves, %.0f moves/s, %d more refused as busy%n", moves, moves * 1e9 / wallNanos,
+				busy));
+		sb.append(String.format("move latency (us): p50 %d  p90 %d  p99 %d  max %d", percentile(all, 50) / 1000,
+				percentile(all, 90) / 1000, percentile(all, 99) / 1000, percentile(all, 100) / 1000));
+		return sb.toString();
+	}
+
+	private static long percentile(long[] sorted, double p) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		int index = (int) Math.ceil(p / 100 * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+	}
+
+	/**
+	 * Usage: java LoadSimulator [clients] [games per client] [port]
+	 */
+	public static void main(String[] args) throws IOException {
+		int clients = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int games = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+		GameServer embedded = null;
+		int port;
+		if (args.length > 2) {
+			port = Integer.parseInt(args[2]);
+		} else {
+			embedded = new GameServer(Runtime.getRuntime().availableProcessors(), 4096);
+			embedded.start(0);
+			port = embedded.getPort();
+		}
+		try {
+			System.out.println(new LoadSimulator(port, clients, games).run());
+			if (embedded != null) {
+				System.out.println(embedded.stats());
+			}
+		} finally {
+			if (embedded != null) {
+				embedded.stop();
+			}
+		}
+	}
+}
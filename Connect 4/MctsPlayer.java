@@ -0,0 +1,546 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Picks moves by Monte Carlo tree search with UCT: it plays many quick games from the current position, and
+ * grows a tree of the positions along the way in which the moves that did best so far are tried most, with
+ * less tried moves given a chance in proportion to how uncertain their results still are. The move played is
+ * the one tried most. Unlike StrongAI it needs no heuristic and no depth, only a budget of games or of time.
+ *
+ * Every worker thread searches the same tree (tree parallelism) on its own copy of the position as bitboards,
+ * the same layout as Board's. A worker going down the tree adds a virtual loss to each node it passes, so the
+ * others are steered to different lines until its result is in. The playouts are random apart from three
+ * rules: take a win, block the opponent's only winning cell, and do not play right under one.
+ *
+ * The tree lives in preallocated arrays rather than node objects: one long per node packing its visits and
+ * score, and one int per node with the index of its first child. Expanding a node takes a block of one child
+ * per column. When the tree is full, leaves just stop being expanded. Between moves the part of the tree below
+ * the new position, two plies on, is copied into a second set of arrays and the rest is dropped, so the work
+ * already done on the line actually played carries over.
+ *
+ * @author Andrew
+ *
+ */
+public class MctsPlayer extends Player {
+
+	/**
+	 * Games played per move unless changed.
+	 */
+	static final int SIMULATIONS = 20000;
+	/**
+	 * Nodes in the tree unless changed.
+	 */
+	static final int CAPACITY = 1 << 19;
+	/**
+	 * Weight of the exploration term of UCT, for scores between 0 and 1.
+	 */
+	static final double EXPLORATION = 1.0;
+	/**
+	 * Visits a leaf needs before it is expanded, so that the tree does not fill up with nodes tried only once.
+	 */
+	static final int EXPAND_VISITS = 4;
+	/**
+	 * Visits added to each node on the way down and taken off again with the result on the way up.
+	 */
+	static final int VIRTUAL_LOSS = 3;
+	/**
+	 * A node's visits are kept in the top half of its stats and its score in the bottom half. A win for the
+	 * side that moved into the node scores 2, a draw 1 and a loss 0.
+	 */
+	static final long VISIT = 1L << 32;
+	static final long SCORE_MASK = VISIT - 1;
+
+	int simulations = SIMULATIONS;
+	long timeLimit;
+	double exploration = EXPLORATION;
+	int threads = 1;
+	ExecutorService pool;
+
+	/**
+	 * The tree, and the arrays it is copied into when the root moves on.
+	 */
+	int capacity;
+	AtomicLongArray stats;
+	AtomicIntegerArray children;
+	AtomicLongArray spareStats;
+	AtomicIntegerArray spareChildren;
+	AtomicInteger used = new AtomicInteger();
+
+	/**
+	 * The position of the root, node 0: the pieces of the side to move and of both sides.
+	 */
+	long rootCurrent;
+	long rootMask = -1;
+
+	/**
+	 * Geometry of the board being played, see Bitboard.
+	 */
+	Bitboard bits;
+	int rows;
+	int cols;
+	int colBits;
+	long bottomMask;
+	long boardMask;
+	int[] order;
+
+	/**
+	 * Games played so far in the current search, and when it must stop.
+	 */
+	AtomicLong played = new AtomicLong();
+	long deadline;
+
+	Worker[] workers;
+
+	/**
+	 * Results of the last call to getMove.
+	 */
+	long lastSimulations;
+	int lastDepth;
+	double lastWinRate;
+	int reusedNodes;
+
+	/**
+	 * @param p
+	 */
+	public MctsPlayer(Piece p) {
+		this(p, CAPACITY);
+	}
+
+	/**
+	 * @param p
+	 * @param capacity number of nodes the tree can hold
+	 */
+	public MctsPlayer(Piece p, int capacity) {
+		super(p);
+		if (capacity < 64) {
+			throw new IllegalArgumentException("Tree too small: " + capacity);
+		}
+		this.capacity = capacity;
+		stats = new AtomicLongArray(capacity);
+		children = new AtomicIntegerArray(capacity);
+		workers = new Worker[] { new Worker(1) };
+	}
+
+	/**
+	 * @param n games to play per move, or 0 for no limit when there is a time limit
+	 */
+	public void setSimulations(int n) {
+		if (n < 0) {
+			throw new IllegalArgumentException("Negative number of games: " + n);
+		}
+		simulations = n;
+	}
+
+	/**
+	 * @param millis time allowed per move, or 0 for no limit when there is a limit on the games
+	 */
+	public void setTimeLimit(long millis) {
+		timeLimit = millis;
+	}
+
+	/**
+	 * @param c weight of the exploration term, higher to try the less promising moves more often
+	 */
+	public void setExploration(double c) {
+		exploration = c;
+	}
+
+	/**
+	 * @param n number of threads searching the tree at the same time, including the calling one
+	 */
+	public void setThreads(int n) {
+		if (n < 1) {
+			throw new IllegalArgumentException("Need at least one thread: " + n);
+		}
+		if (pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+		threads = n;
+		workers = new Worker[n];
+		for (int i = 0; i < n; i++) {
+			workers[i] = new Worker(i + 1);
+		}
+		if (n > 1) {
+			pool = Executors.newFixedThreadPool(n - 1, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "MctsPlayer worker");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+	}
+
+	/**
+	 * @return the number of games played by the last call to getMove
+	 */
+	public long getLastSimulations() {
+		return lastSimulations;
+	}
+
+	/**
+	 * @return the share of the games through the move returned by the last call to getMove that it won, with
+	 *         draws as half
+	 */
+	public double getLastWinRate() {
+		return lastWinRate;
+	}
+
+	/**
+	 * @return the number of nodes kept from the tree of the move before by the last call to getMove
+	 */
+	public int getReusedNodes() {
+		return reusedNodes;
+	}
+
+	@Override
+	public int getMove(Board b) {
+		long start = System.nanoTime();
+		if (!b.movesRemaining()) {
+			return -1;
+		}
+		if (simulations == 0 && timeLimit <= 0) {
+			throw new IllegalStateException("No limit on the games or the time to search");
+		}
+		setGeometry(b);
+		long mask = b.redMask | b.yellowMask;
+		long current = piece == Piece.RED ? b.redMask : b.yellowMask;
+		moveRoot(current, mask);
+		if (children.get(0) <= 0) {
+			children.set(0, 0);
+			expand(0);
+		}
+
+		played.set(0);
+		deadline = timeLimit > 0 ? start + timeLimit * 1000000 : Long.MAX_VALUE;
+		List<Future<?>> running = new ArrayList<Future<?>>();
+		for (int i = 1; i < threads; i++) {
+			final Worker worker = workers[i];
+			running.add(pool.submit(new Runnable() {
+				@Override
+				public void run() {
+					worker.search();
+				}
+			}));
+		}
+		workers[0].search();
+		for (Future<?> f : running) {
+			try {
+				f.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("Search failed", e.getCause());
+			}
+		}
+
+		int first = children.get(0);
+		int best = -1;
+		long bestVisits = -1;
+		for (int i = 0; i < cols; i++) {
+			int col = order[i];
+			long s = stats.get(first + col);
+			if ((mask & topCell(col)) == 0 && s >>> 32 > bestVisits) {
+				best = col;
+				bestVisits = s >>> 32;
+			}
+		}
+		long s = stats.get(first + best);
+		lastWinRate = bestVisits == 0 ? 0.5 : (s & SCORE_MASK) / (2.0 * bestVisits);
+		lastSimulations = played.get();
+		lastDepth = 0;
+		for (Worker worker : workers) {
+			lastDepth = Math.max(lastDepth, worker.deepest);
+		}
+		if (hasSearchListeners()) {
+			SearchStats searched = new SearchStats();
+			searched.nodes = lastSimulations;
+			searched.leaves = lastSimulations;
+			searched.maxDepth = lastDepth;
+			searched.wallNanos = System.nanoTime() - start;
+			fireMoveSearched(searched);
+		}
+		return best;
+	}
+
+	private void setGeometry(Board b) {
+		if (bits != null && b.numRows == rows && b.numCols == cols) {
+			return;
+		}
+		bits = new Bitboard(b.numRows, b.numCols);
+		rows = bits.rows;
+		cols = bits.cols;
+		colBits = bits.colBits;
+		bottomMask = bits.bottomMask;
+		boardMask = bits.boardMask;
+		order = bits.columnOrder;
+		rootMask = -1;
+	}
+
+	long topCell(int col) {
+		return 1L << (col * colBits + rows - 1);
+	}
+
+	/**
+	 * Makes the given position the root, keeping what is known about it if it is the old root or one of its
+	 * grandchildren, and starting a new tree otherwise.
+	 */
+	void moveRoot(long current, long mask) {
+		reusedNodes = 0;
+		if (mask == rootMask && current == rootCurrent) {
+			reusedNodes = used.get();
+			return;
+		}
+		int node = -1;
+		int first = rootMask == -1 ? 0 : children.get(0);
+		for (int a = 0; a < cols && first > 0 && node < 0; a++) {
+			long aMask = rootMask | (rootMask + bottomMask) & columnMask(a);
+			int second = children.get(first + a);
+			for (int c = 0; c < cols && second > 0 && aMask != rootMask; c++) {
+				long cMask = aMask | (aMask + bottomMask) & columnMask(c);
+				// two plies on, the side to move has the pieces it had plus the one played in column a
+				if (cMask == mask && cMask != aMask && current == (rootCurrent | (aMask ^ rootMask))) {
+					node = second + c;
+				}
+			}
+		}
+		rootCurrent = current;
+		rootMask = mask;
+		if (node < 0) {
+			used.set(1);
+			stats.set(0, 0);
+			children.set(0, 0);
+			return;
+		}
+		if (spareStats == null) {
+			spareStats = new AtomicLongArray(capacity);
+			spareChildren = new AtomicIntegerArray(capacity);
+		}
+		spareStats.set(0, stats.get(node));
+		spareChildren.set(0, 0);
+		int[] next = { 1 };
+		copy(node, 0, next);
+		AtomicLongArray s = stats;
+		stats = spareStats;
+		spareStats = s;
+		AtomicIntegerArray c = children;
+		children = spareChildren;
+		spareChildren = c;
+		used.set(next[0]);
+		reusedNodes = next[0];
+	}
+
+	long columnMask(int col) {
+		return bits.columnMasks[col];
+	}
+
+	/**
+	 * Copies the children of a node of the tree into the spare arrays, below the node to.
+	 */
+	private void copy(int from, int to, int[] next) {
+		int first = children.get(from);
+		if (first <= 0) {
+			return;
+		}
+		int block = next[0];
+		next[0] += cols;
+		for (int c = 0; c < cols; c++) {
+			spareStats.set(block + c, stats.get(first + c));
+			spareChildren.set(block + c, 0);
+		}
+		spareChildren.set(to, block);
+		for (int c = 0; c < cols; c++) {
+			copy(first + c, block + c, next);
+		}
+	}
+
+	/**
+	 * Gives a node a block of children, unless another thread is already doing so or the tree is full.
+	 */
+	void expand(int node) {
+		if (!children.compareAndSet(node, 0, -1) || used.get() + cols > capacity) {
+			return;
+		}
+		int first = used.getAndAdd(cols);
+		if (first + cols > capacity) {
+			return; // stays -1, a leaf for good
+		}
+		for (int c = 0; c < cols; c++) {
+			stats.set(first + c, 0);
+			children.set(first + c, 0);
+		}
+		children.set(node, first);
+	}
+
+	/**
+	 * The state of one searching thread.
+	 */
+	class Worker {
+		int[] path = new int[65];
+		long seed;
+		int deepest;
+
+		Worker(long id) {
+			seed = 0x9E3779B97F4A7C15L * id;
+		}
+
+		int nextInt(int bound) {
+			seed ^= seed << 13;
+			seed ^= seed >>> 7;
+			seed ^= seed << 17;
+			return (int) (((seed >>> 32) * bound) >>> 32);
+		}
+
+		void search() {
+			deepest = 0;
+			int batch = 0;
+			while (true) {
+				if (simulations > 0 && played.getAndIncrement() >= simulations) {
+					played.decrementAndGet();
+					return;
+				}
+				if (simulations == 0) {
+					played.incrementAndGet();
+				}
+				simulate();
+				if (++batch % 64 == 0 && System.nanoTime() > deadline) {
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Goes down the tree from the root by UCT, plays the rest of the game out at random, and counts the
+		 * result in every node on the way.
+		 */
+		void simulate() {
+			long current = rootCurrent;
+			long mask = rootMask;
+			int depth = 0;
+			int node = 0;
+			path[depth++] = node;
+			stats.addAndGet(node, VIRTUAL_LOSS * VISIT);
+			int result = -1; // for the side to move at the end of the path: 2 won, 1 drawn, 0 lost
+			while (true) {
+				int first = children.get(node);
+				if (first <= 0) {
+					if (first == 0 && stats.get(node) >>> 32 >= EXPAND_VISITS + VIRTUAL_LOSS) {
+						expand(node);
+						first = children.get(node);
+					}
+					if (first <= 0) {
+						break;
+					}
+				}
+				int col = select(first, mask);
+				long move = (mask + bottomMask) & columnMask(col);
+				long mine = current | move;
+				mask |= move;
+				current = mine ^ mask;
+				node = first + col;
+				path[depth++] = node;
+				stats.addAndGet(node, VIRTUAL_LOSS * VISIT);
+				if (bits.hasFour(mine)) {
+					result = 0;
+					break;
+				}
+				if (mask == boardMask) {
+					result = 1;
+					break;
+				}
+			}
+			if (result < 0) {
+				result = playout(current, mask);
+			}
+			if (depth > deepest) {
+				deepest = depth;
+			}
+			// each node is scored for the side that moved into it, the opposite of the side to move there
+			for (int i = depth - 1; i >= 0; i--) {
+				result = 2 - result;
+				stats.addAndGet(path[i], (1 - VIRTUAL_LOSS) * VISIT + result);
+			}
+		}
+
+		/**
+		 * @return the column to try from a node whose children start at first
+		 */
+		int select(int first, long mask) {
+			long parent = 0;
+			for (int c = 0; c < cols; c++) {
+				parent += stats.get(first + c) >>> 32;
+			}
+			double logParent = Math.log(Math.max(parent, 1));
+			int best = -1;
+			double bestValue = -1;
+			for (int i = 0; i < cols; i++) {
+				int col = order[i];
+				if ((mask & topCell(col)) != 0) {
+					continue;
+				}
+				long s = stats.get(first + col);
+				long visits = s >>> 32;
+				if (visits == 0) {
+					return col;
+				}
+				double value = (s & SCORE_MASK) / (2.0 * visits) + exploration * Math.sqrt(logParent / visits);
+				if (value > bestValue) {
+					bestValue = value;
+					best = col;
+				}
+			}
+			return best;
+		}
+
+		/**
+		 * Plays a position out to the end.
+		 *
+		 * @param current the pieces of the side to move
+		 * @param mask    all pieces
+		 * @return 2 if the side to move won, 1 for a draw, 0 if it lost
+		 */
+		int playout(long current, long mask) {
+			int plies = 0; // the side to move at the start is on move again when even
+			while (mask != boardMask) {
+				long playable = bits.playable(mask);
+				long opponent = current ^ mask;
+				if ((bits.winningCells(current, mask) & playable) != 0) {
+					return plies % 2 == 0 ? 2 : 0;
+				}
+				long threats = bits.winningCells(opponent, mask);
+				long forced = threats & playable;
+				long move;
+				if (forced != 0) {
+					if ((forced & (forced - 1)) != 0) {
+						return plies % 2 == 0 ? 0 : 2; // cannot block both
+					}
+					move = forced;
+				} else {
+					long safe = playable & ~(threats >>> 1);
+					if (safe == 0) {
+						safe = playable;
+					}
+					for (int skip = nextInt(Long.bitCount(safe)); skip > 0; skip--) {
+						safe &= safe - 1;
+					}
+					move = Long.lowestOneBit(safe);
+				}
+				current = opponent;
+				mask |= move;
+				plies++;
+			}
+			return 1;
+		}
+	}
+}
@@ -0,0 +1,329 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Precomputed best moves for the first plies of the game, so that StrongAI can answer them without searching.
+ *
+ * The book is a file of fixed size entries sorted by the canonical hash of the position (see Board), found by
+ * binary search. The file is memory-mapped rather than read, so a lookup reads straight from the page cache
+ * without copying anything onto the heap, and every JVM on the host using the same file shares one copy of it.
+ *
+ * Layout, all big-endian: the magic number, the format version, the board rows and columns, the number of plies
+ * covered and the number of entries, as ints; then one entry per position: the hash as a long, the column as a
+ * short, the depth it was searched to as a short and its value to the side to move as an int. The column is for
+ * the position as hashed, so it is mirrored on the way out when the board is the mirror image of its canonical
+ * form.
+ *
+ * A book written by Solver.generateBook holds proven moves instead: every entry has depth SOLVED and its value
+ * is the exact score of the position as Solver gives it.
+ *
+ * Run this class to generate a book.
+ *
+ * @author Andrew
+ *
+ */
+public class OpeningBook {
+
+	static final int MAGIC = 0x43344253; // "C4BS"
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 24;
+	static final int ENTRY_BYTES = 16;
+
+	/**
+	 * Where Game and Tournament look for a book.
+	 */
+	public static final String DEFAULT_FILE = "connect4.book";
+
+	/**
+	 * Depth of entries solved to the end of the game.
+	 */
+	public static final int SOLVED = Short.MAX_VALUE;
+
+	ByteBuffer entries;
+	int rows;
+	int cols;
+	int plies;
+	int count;
+
+	OpeningBook(ByteBuffer buffer) throws IOException {
+		if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			throw new IOException("Not an opening book");
+		}
+		rows = buffer.getInt(8);
+		cols = buffer.getInt(12);
+		plies = buffer.getInt(16);
+		count = buffer.getInt(20);
+		if ((long) count * ENTRY_BYTES + HEADER_BYTES != buffer.capacity()) {
+			throw new IOException("Opening book is truncated");
+		}
+		entries = buffer;
+	}
+
+	/**
+	 * Maps a book into memory.
+	 *
+	 * @param file
+	 * @return the book
+	 */
+	public static OpeningBook open(File file) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			// the mapping stays valid after the channel is closed
+			return new OpeningBook(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * @param file
+	 * @return the book, or null if the file does not exist or is not a book
+	 */
+	public static OpeningBook openIfPresent(File file) {
+		if (!file.isFile()) {
+			return null;
+		}
+		try {
+			return open(file);
+		} catch (IOException e) {
+			System.err.println("Ignoring opening book " + file + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * @param b
+	 * @return the book move for the side to move, or -1 if the position is not in the book
+	 */
+	public int getMove(Board b) {
+		int index = find(b);
+		if (index < 0) {
+			return -1;
+		}
+		int col = entries.getShort(HEADER_BYTES + index * ENTRY_BYTES + 8);
+		if (b.isMirrored()) {
+			col = b.mirrorColumn(col);
+		}
+		return b.isValidMove(col) ? col : -1;
+	}
+
+	/**
+	 * @param b a position in the book
+	 * @return the value of the book move to the side to move, as StrongAI scores it
+	 */
+	public int getValue(Board b) {
+		int index = find(b);
+		return index < 0 ? 0 : entries.getInt(HEADER_BYTES + index * ENTRY_BYTES + 12);
+	}
+
+	/**
+	 * @param b
+	 * @return true if the position is in the book with a proven value, see SOLVED
+	 */
+	public boolean isSolved(Board b) {
+		int index = find(b);
+		return index >= 0 && getDepth(index) == SOLVED;
+	}
+
+	/**
+	 * @return the index of the entry for the position, or -1
+	 */
+	int find(Board b) {
+		if (b.numRows != rows || b.numCols != cols || b.getPieceCount() > plies) {
+			return -1;
+		}
+		return find(b.getCanonicalHash());
+	}
+
+	/**
+	 * @param hash the canonical hash of a position of the size and at most the plies of the book
+	 * @return the index of its entry, or -1
+	 */
+	int find(long hash) {
+		int low = 0;
+		int high = count - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			long key = entries.getLong(HEADER_BYTES + mid * ENTRY_BYTES);
+			if (key < hash) {
+				low = mid + 1;
+			} else if (key > hash) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	int getDepth(int index) {
+		return entries.getShort(HEADER_BYTES + index * ENTRY_BYTES + 10);
+	}
+
+	int getValue(int index) {
+		return entries.getInt(HEADER_BYTES + index * ENTRY_BYTES + 12);
+	}
+
+	/**
+	 * @return the number of positions in the book
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Lists every position reachable in at most the given number of plies that is not already decided, once
+	 * per mirror image pair.
+	 */
+	static List<Board> positions(int rows, int cols, int plies) {
+		List<Board> found = new ArrayList<Board>();
+		collect(new Board(rows, cols), plies, new HashSet<Long>(), found);
+		return found;
+	}
+
+	private static void collect(Board b, int plies, Set<Long> seen, List<Board> found) {
+		if (b.lastMoveWon() || !b.movesRemaining() || !seen.add(b.getCanonicalHash())) {
+			return;
+		}
+		found.add(new Board(b));
+		if (b.getPieceCount() == plies) {
+			return;
+		}
+		Piece toMove = b.getPieceCount() % 2 == 0 ? Piece.RED : Piece.YELLOW;
+		for (int col = 0; col < b.numCols; col++) {
+			if (b.placePiece(col, toMove)) {
+				collect(b, plies, seen, found);
+				b.undoMove(col);
+			}
+		}
+	}
+
+	/**
+	 * Searches every position of the first plies with StrongAI and writes the results as a book.
+	 *
+	 * @param file    where to write the book
+	 * @param plies   positions with up to this many pieces are covered
+	 * @param depth   search depth for each position
+	 * @param threads number of positions to search at once
+	 */
+	public static void generate(File file, int rows, int cols, int plies, final int depth, int threads)
+			throws IOException {
+		final List<Board> boards = positions(rows, cols, plies);
+		final long[][] results = new long[boards.size()][];
+		final AtomicInteger next = new AtomicInteger();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<?>> running = new ArrayList<Future<?>>();
+		for (int t = 0; t < threads; t++) {
+			running.add(pool.submit(new Callable<Void>() {
+				@Override
+				public Void call() {
+					StrongAI red = new StrongAI(Piece.RED, 1 << 20);
+					StrongAI yellow = new StrongAI(Piece.YELLOW, 1 << 20);
+					red.setVerbose(false);
+					yellow.setVerbose(false);
+					red.setSearchDepth(depth);
+					yellow.setSearchDepth(depth);
+					int i;
+					while ((i = next.getAndIncrement()) < boards.size()) {
+						Board b = boards.get(i);
+						StrongAI ai = b.getPieceCount() % 2 == 0 ? red : yellow;
+						int col = ai.getMove(b);
+						if (b.isMirrored()) {
+							col = b.mirrorColumn(col);
+						}
+						results[i] = new long[] { b.getCanonicalHash(), col, depth, ai.getLastValue() };
+					}
+					return null;
+				}
+			}));
+		}
+		try {
+			for (Future<?> f : running) {
+				f.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while generating the book");
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Search failed", e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+		write(file, rows, cols, plies, results);
+	}
+
+	/**
+	 * Lays out a book in memory, as it would be mapped from a file.
+	 *
+	 * @param results one entry per position: its canonical hash, the column for the canonical form, the depth
+	 *                searched and the value. Sorted by hash as a side effect.
+	 */
+	static ByteBuffer encode(int rows, int cols, int plies, long[][] results) {
+		Arrays.sort(results, new java.util.Comparator<long[]>() {
+			@Override
+			public int compare(long[] a, long[] b) {
+				return Long.compare(a[0], b[0]);
+			}
+		});
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + results.length * ENTRY_BYTES);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putInt(rows);
+		buffer.putInt(cols);
+		buffer.putInt(plies);
+		buffer.putInt(results.length);
+		for (long[] r : results) {
+			buffer.putLong(r[0]);
+			buffer.putShort((short) r[1]);
+			buffer.putShort((short) r[2]);
+			buffer.putInt((int) r[3]);
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Writes a book, see encode.
+	 */
+	static void write(File file, int rows, int cols, int plies, long[][] results) throws IOException {
+		ByteBuffer buffer = encode(rows, cols, plies, results);
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Usage: java OpeningBook [file] [plies] [depth] [threads]
+	 */
+	public static void main(String[] args) throws IOException {
+		File file = new File(args.length > 0 ? args[0] : DEFAULT_FILE);
+		int plies = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		int depth = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+		int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+		long start = System.nanoTime();
+		generate(file, 6, 7, plies, depth, threads);
+		OpeningBook book = open(file);
+		System.out.println("Wrote " + book.size() + " positions up to ply " + plies + " searched to depth " + depth
+				+ " in " + (System.nanoTime() - start) / 1000000 + " ms");
+	}
+}
@@ -10,6 +10,10 @@ public abstract class Player {
 	 * The piece type for this player.
 	 */
 	Piece piece;
+	/**
+	 * Told about the work done for every move. Players only collect statistics while this is not empty.
+	 */
+	java.util.List<SearchListener> listeners = new java.util.concurrent.CopyOnWriteArrayList<SearchListener>();
 	/**
 	 * CTOR
 	 * @param p the piece type for this player
@@ -25,6 +29,32 @@ public abstract class Player {
 	 */
 	public abstract int getMove(Board b);
 	
+	public void addSearchListener(SearchListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeSearchListener(SearchListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * @return true if anyone wants the statistics of the moves this player makes
+	 */
+	public boolean hasSearchListeners() {
+		return !listeners.isEmpty();
+	}
+
+	/**
+	 * Hands the statistics of a move to every listener. Players that search should call this at the end of
+	 * getMove whenever hasSearchListeners is true.
+	 * @param stats
+	 */
+	protected void fireMoveSearched(SearchStats stats) {
+		for(SearchListener listener : listeners) {
+			listener.moveSearched(this, stats);
+		}
+	}
+	
 	public Piece getPieceType() {
 		return piece;
 	}
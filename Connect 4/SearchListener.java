@@ -0,0 +1,16 @@
+/**
+ * Receives the statistics of every move searched by a Player it has been added to.
+ *
+ * @author Andrew
+ *
+ */
+public interface SearchListener {
+
+	/**
+	 * Called on the thread that asked for the move, just before the move is returned.
+	 *
+	 * @param player the player that searched
+	 * @param stats  the work done for this move
+	 */
+	void moveSearched(Player player, SearchStats stats);
+}
@@ -0,0 +1,173 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A SearchListener that keeps running totals over every move it hears about, from any number of players and
+ * threads, and exports them for monitoring.
+ *
+ * toPrometheus gives the Prometheus text format, which a local node exporter picks up when written to its
+ * textfile directory with writePrometheus. toJson gives one line of JSON, for appending to a log.
+ *
+ * @author Andrew
+ *
+ */
+public class SearchMetrics implements SearchListener {
+
+	/**
+	 * Label telling these totals apart from those of other engines.
+	 */
+	String name;
+
+	long moves;
+	long bookMoves;
+	long ponderHits;
+	long cacheMoves;
+	long nodes;
+	long leaves;
+	long cutoffs;
+	long tableProbes;
+	long tableHits;
+	long wallNanos;
+	long depthSum;
+	int deepest;
+	double branchingSum;
+
+	/**
+	 * @param name label for the exported metrics, e.g. the engine being measured
+	 */
+	public SearchMetrics(String name) {
+		this.name = name;
+	}
+
+	@Override
+	public synchronized void moveSearched(Player player, SearchStats stats) {
+		moves++;
+		if (stats.bookMove) {
+			bookMoves++;
+		}
+		if (stats.ponderHit) {
+			ponderHits++;
+		}
+		if (stats.cacheMove) {
+			cacheMoves++;
+		}
+		nodes += stats.nodes;
+		leaves += stats.leaves;
+		cutoffs += stats.cutoffs;
+		tableProbes += stats.tableProbes;
+		tableHits += stats.tableHits;
+		wallNanos += stats.wallNanos;
+		depthSum += stats.maxDepth;
+		deepest = Math.max(deepest, stats.maxDepth);
+		branchingSum += stats.getBranchingFactor();
+	}
+
+	public synchronized long getMoves() {
+		return moves;
+	}
+
+	public synchronized long getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * @return the totals in the Prometheus text exposition format
+	 */
+	public String toPrometheus() {
+		return toPrometheus(this);
+	}
+
+	/**
+	 * Name, type and help text of each exported metric, in the order of the values given by snapshot.
+	 */
+	static final String[][] FAMILIES = {
+			{ "connect4_search_moves_total", "counter", "Moves searched" },
+			{ "connect4_search_book_moves_total", "counter", "Moves taken from the opening book" },
+			{ "connect4_search_ponder_hits_total", "counter", "Moves worked out while pondering" },
+			{ "connect4_search_cache_moves_total", "counter", "Moves taken from the evaluation cache" },
+			{ "connect4_search_nodes_total", "counter", "Positions visited" },
+			{ "connect4_search_leaves_total", "counter", "Positions scored by the heuristic" },
+			{ "connect4_search_cutoffs_total", "counter", "Alpha-beta cutoffs" },
+			{ "connect4_search_table_probes_total", "counter", "Transposition table lookups" },
+			{ "connect4_search_table_hits_total", "counter", "Transposition table lookups found" },
+			{ "connect4_search_seconds_total", "counter", "Time spent searching" },
+			{ "connect4_search_depth_max", "gauge", "Deepest ply reached by any move" },
+			{ "connect4_search_depth_average", "gauge", "Average deepest ply per move" },
+			{ "connect4_search_branching_factor_average", "gauge", "Average effective branching factor per move" } };
+
+	synchronized double[] snapshot() {
+		return new double[] { moves, bookMoves, ponderHits, cacheMoves, nodes, leaves, cutoffs, tableProbes,
+				tableHits, wallNanos / 1e9, deepest, moves == 0 ? 0 : (double) depthSum / moves,
+				moves == 0 ? 0 : branchingSum / moves };
+	}
+
+	/**
+	 * @return the totals of all the given metrics in one Prometheus text exposition, one label value each
+	 */
+	public static String toPrometheus(SearchMetrics... all) {
+		double[][] values = new double[all.length][];
+		for (int i = 0; i < all.length; i++) {
+			values[i] = all[i].snapshot();
+		}
+		StringBuilder sb = new StringBuilder();
+		for (int f = 0; f < FAMILIES.length; f++) {
+			String family = FAMILIES[f][0];
+			sb.append("# HELP ").append(family).append(' ').append(FAMILIES[f][2]).append('\n');
+			sb.append("# TYPE ").append(family).append(' ').append(FAMILIES[f][1]).append('\n');
+			for (int i = 0; i < all.length; i++) {
+				sb.append(family).append("{engine=\"").append(escape(all[i].name)).append("\"} ");
+				double value = values[i][f];
+				if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+					sb.append((long) value);
+				} else {
+					sb.append(value);
+				}
+				sb.append('\n');
+			}
+		}
+		return sb.toString();
+	}
+
+	private static String escape(String label) {
+		return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	/**
+	 * Writes toPrometheus to a file, replacing it in one step so that a scraper never reads half of it.
+	 *
+	 * @param file e.g. connect4.prom in the node exporter textfile directory
+	 */
+	public static void writePrometheus(File file, SearchMetrics... all) throws IOException {
+		File temp = new File(file.getPath() + ".tmp");
+		Writer out = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8);
+		try {
+			out.write(toPrometheus(all));
+		} finally {
+			out.close();
+		}
+		if (!temp.renameTo(file)) {
+			throw new IOException("Could not replace " + file);
+		}
+	}
+
+	/**
+	 * @return the totals as a single line JSON object
+	 */
+	public synchronized String toJson() {
+		return String.format(java.util.Locale.ROOT,
+				"{\"engine\":\"%s\",\"moves\":%d,\"bookMoves\":%d,\"ponderHits\":%d,\"cacheMoves\":%d,\"nodes\":%d,"
+						+ "\"leaves\":%d,\"cutoffs\":%d,\"tableProbes\":%d,\"tableHits\":%d,\"seconds\":%.6f,"
+						+ "\"maxDepth\":%d,\"averageDepth\":%.3f,\"averageBranchingFactor\":%.3f}",
+				escape(name), moves, bookMoves, ponderHits, cacheMoves, nodes, leaves, cutoffs, tableProbes,
+				tableHits, wallNanos / 1e9, deepest, moves == 0 ? 0 : (double) depthSum / moves,
+				moves == 0 ? 0 : branchingSum / moves);
+	}
+
+	public String toString() {
+		return toJson();
+	}
+}
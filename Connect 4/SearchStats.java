@@ -0,0 +1,102 @@
+/**
+ * How much work a Player did to pick one move. Handed to every SearchListener of the player after each move.
+ *
+ * @author Andrew
+ *
+ */
+public class SearchStats {
+
+	long nodes;
+	/**
+	 * Positions that were scored by the heuristic because the search stopped there.
+	 */
+	long leaves;
+	/**
+	 * Positions where the rest of the moves were skipped after one was found good enough.
+	 */
+	long cutoffs;
+	long tableProbes;
+	long tableHits;
+	/**
+	 * Deepest ply visited below the current position.
+	 */
+	int maxDepth;
+	long wallNanos;
+	/**
+	 * Whether the move came from the opening book rather than a search.
+	 */
+	boolean bookMove;
+	/**
+	 * Whether the move was worked out while pondering on the opponent's time, so that no search was needed.
+	 */
+	boolean ponderHit;
+	/**
+	 * Whether the move was found in the evaluation cache, searched as deeply before by this or another process.
+	 */
+	boolean cacheMove;
+
+	public long getNodes() {
+		return nodes;
+	}
+
+	public long getLeaves() {
+		return leaves;
+	}
+
+	public long getCutoffs() {
+		return cutoffs;
+	}
+
+	public long getTableProbes() {
+		return tableProbes;
+	}
+
+	public long getTableHits() {
+		return tableHits;
+	}
+
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	public long getWallNanos() {
+		return wallNanos;
+	}
+
+	public boolean isBookMove() {
+		return bookMove;
+	}
+
+	public boolean isPonderHit() {
+		return ponderHit;
+	}
+
+	public boolean isCacheMove() {
+		return cacheMove;
+	}
+
+	/**
+	 * @return the effective branching factor, the number of moves per position a full width search to the same
+	 *         depth would need to visit as many positions
+	 */
+	public double getBranchingFactor() {
+		if (maxDepth == 0 || nodes == 0) {
+			return 0;
+		}
+		return Math.pow(nodes, 1.0 / maxDepth);
+	}
+
+	public String toString() {
+		if (bookMove) {
+			return String.format("book move, %.1f ms", wallNanos / 1e6);
+		}
+		if (ponderHit) {
+			return String.format("ponder hit, %.1f ms", wallNanos / 1e6);
+		}
+		if (cacheMove) {
+			return String.format("cache move, %.1f ms", wallNanos / 1e6);
+		}
+		return String.format("%d nodes, %d leaves, %d cutoffs, %d/%d table hits, depth %d, branching %.2f, %.1f ms",
+				nodes, leaves, cutoffs, tableHits, tableProbes, maxDepth, getBranchingFactor(), wallNanos / 1e6);
+	}
+}
@@ -0,0 +1,621 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A player that plays perfectly by solving the position: it searches to the end of the game and proves the
+ * result, instead of stopping at a fixed depth and guessing like StrongAI.
+ *
+ * The search is a negamax alpha-beta over two longs, the pieces of the side to move and all the pieces, in the
+ * bit layout of Board. Positions are scored the usual way for solved Connect 4: 0 for a draw, and for a win the
+ * number of cells the winner leaves empty, halved, so that quicker wins score higher; a loss is the negative of
+ * the opponent's win. The value of the root is found by a series of null-window searches that halve the range the
+ * score can still lie in, in the manner of MTD(f). Each of these searches only has to answer whether the score is
+ * above a given value, which prunes far more than a wide window, and they all share a TranspositionTable that
+ * keeps the bound found for each position and the move that proved it.
+ *
+ * Moves that hand the opponent an immediate win are never searched, forced blocks are played at once, and the
+ * rest are tried in order of how many winning cells they create, center first on ties. Early positions are taken
+ * from a solved opening database when there is one (see generateBook), which is what makes the first moves of a
+ * standard game affordable.
+ *
+ * Solving an early position can still take minutes. With setTimeLimit the solver gives up when the time is out
+ * and plays StrongAI's move instead, and isLastMoveSolved tells the two apart.
+ *
+ * Like the other players it is only asked for moves on its own turn, but it works out whose turn it is from the
+ * board, so one Solver can answer for both sides, e.g. when solving positions from the command line.
+ *
+ * Run this class to solve positions from the command line.
+ *
+ * @author Andrew
+ *
+ */
+public class Solver extends Player {
+
+	/**
+	 * Where main looks for a solved opening database, and writes one to by default.
+	 */
+	public static final String DEFAULT_BOOK = "connect4.solved";
+
+	/**
+	 * The bitboard functions of the board size last searched, and the constants of it the search uses most.
+	 */
+	Bitboard bits;
+	int cols;
+	int colBits;
+	int cells;
+	long[] columnMasks;
+	int[] columnOrder;
+
+	/**
+	 * Move ordering scratch space, one row per ply, so that the search creates no arrays.
+	 */
+	int[][] moveLists;
+	int[][] moveScores;
+
+	TranspositionTable table;
+	/**
+	 * The database as set, and the one the search uses: the same if it is for the size of the board being solved,
+	 * else null.
+	 */
+	OpeningBook openingBook;
+	OpeningBook book;
+	/**
+	 * Stands in when a solve runs out of time.
+	 */
+	StrongAI fallback;
+
+	/**
+	 * Time allowed per move in milliseconds, or 0 for no limit, and the System.nanoTime the current solve must
+	 * stop at.
+	 */
+	long timeLimit;
+	long deadline;
+	boolean aborted;
+
+	long nodes;
+	int deepest;
+	int lastScore;
+	boolean lastMoveSolved;
+	boolean lastMoveFromBook;
+
+	/**
+	 * Creates a solver with a table of 4M positions, 64MB.
+	 *
+	 * @param p the piece type for this player
+	 */
+	public Solver(Piece p) {
+		this(p, 1 << 22);
+	}
+
+	/**
+	 * @param p             the piece type for this player
+	 * @param tableCapacity the number of positions the table can hold
+	 */
+	public Solver(Piece p, int tableCapacity) {
+		super(p);
+		table = new TranspositionTable(tableCapacity);
+	}
+
+	/**
+	 * @param book a database written by generateBook, or null to solve every position from scratch; it is only
+	 *             used on boards of its size
+	 */
+	public void setOpeningBook(OpeningBook book) {
+		openingBook = book;
+	}
+
+	/**
+	 * @param millis time allowed per move before falling back to StrongAI, or 0 to always solve
+	 */
+	public void setTimeLimit(long millis) {
+		timeLimit = millis;
+	}
+
+	/**
+	 * @return the proven score of the position the last move was picked in, to the side that moved; only
+	 *         meaningful when isLastMoveSolved
+	 */
+	public int getLastScore() {
+		return lastScore;
+	}
+
+	/**
+	 * @return false if the last move was StrongAI's because the solve ran out of time
+	 */
+	public boolean isLastMoveSolved() {
+		return lastMoveSolved;
+	}
+
+	/**
+	 * @return the number of positions visited by the last call to getMove
+	 */
+	public long getNodeCount() {
+		return nodes;
+	}
+
+	/**
+	 * @return the transposition table
+	 */
+	public TranspositionTable getTranspositionTable() {
+		return table;
+	}
+
+	/**
+	 * Sizes the bitboard constants and scratch space for the board, and picks the opening database if it fits it.
+	 */
+	void prepare(Board b) {
+		boolean fits = openingBook != null && openingBook.rows == b.numRows && openingBook.cols == b.numCols;
+		book = fits ? openingBook : null;
+		if (bits != null && b.numRows == bits.rows && b.numCols == bits.cols) {
+			return;
+		}
+		if (3 * (b.colBits + 1) >= 64) {
+			throw new IllegalArgumentException("Cannot solve a board with " + b.numCols + " columns");
+		}
+		bits = new Bitboard(b.numRows, b.numCols);
+		cols = bits.cols;
+		colBits = bits.colBits;
+		cells = bits.cells;
+		columnMasks = bits.columnMasks;
+		columnOrder = bits.columnOrder;
+		moveLists = new int[cells + 1][cols];
+		moveScores = new int[cells + 1][cols];
+		table.clear();
+	}
+
+	/**
+	 * Turns a position into a table key. current + mask differs for every position, since each column of it is
+	 * the column's pieces plus a marker bit above them; the multiplication and shift spread that over the bits
+	 * the table takes its bucket from, without ever mapping two keys to the same hash.
+	 */
+	static long key(long current, long mask) {
+		long h = (current + mask) * 0x9E3779B97F4A7C15L;
+		return h ^ (h >>> 29);
+	}
+
+	/**
+	 * Negamax alpha-beta to the end of the game. The side to move must not be able to win straight away.
+	 *
+	 * @param current the pieces of the side to move
+	 * @param mask    all the pieces
+	 * @param moves   the number of pieces
+	 * @return the score to the side to move if it lies strictly between alpha and beta, else a bound on it
+	 */
+	int negamax(long current, long mask, int moves, int alpha, int beta) {
+		nodes++;
+		if (moves > deepest)
+			deepest = moves;
+		long next = bits.nonLosingMoves(current, mask);
+		if (next == 0)
+			return -(cells - moves) / 2; // the opponent wins with its next move
+		if (moves >= cells - 2)
+			return 0; // nobody can win any more
+		int min = -(cells - 2 - moves) / 2; // the opponent cannot win with its next move
+		if (alpha < min) {
+			alpha = min;
+			if (alpha >= beta)
+				return alpha;
+		}
+		int max = (cells - 1 - moves) / 2; // nor can this side
+		if (beta > max) {
+			beta = max;
+			if (alpha >= beta)
+				return beta;
+		}
+		if (timeLimit > 0 && (nodes & 4095) == 0 && System.nanoTime() - deadline > 0)
+			aborted = true;
+		if (aborted)
+			return 0;
+
+		if (book != null && moves <= book.plies) {
+			int index = book.find(canonicalHash(current, mask, moves));
+			if (index >= 0 && book.getDepth(index) == OpeningBook.SOLVED)
+				return book.getValue(index);
+		}
+
+		long key = key(current, mask);
+		int tableMove = -1;
+		long entry = table.probe(key);
+		if (entry != TranspositionTable.MISS) {
+			tableMove = TranspositionTable.move(entry);
+			int value = TranspositionTable.value(entry);
+			if (TranspositionTable.bound(entry) == TranspositionTable.LOWER_BOUND) {
+				if (value > alpha) {
+					alpha = value;
+					if (alpha >= beta)
+						return alpha;
+				}
+			} else if (value < beta) {
+				beta = value;
+				if (alpha >= beta)
+					return beta;
+			}
+		}
+
+		int count = orderMoves(current, mask, moves, next, tableMove);
+		int[] list = moveLists[moves];
+		int bestMove = tableMove;
+		for (int i = 0; i < count; i++) {
+			int col = list[i];
+			int score = -negamax(current ^ mask, mask | (next & columnMasks[col]), moves + 1, -beta, -alpha);
+			if (aborted)
+				return 0;
+			if (score >= beta) {
+				table.store(key, score, cells - moves, TranspositionTable.LOWER_BOUND, col);
+				return score;
+			}
+			if (score > alpha) {
+				alpha = score;
+				bestMove = col;
+			}
+		}
+		table.store(key, alpha, cells - moves, TranspositionTable.UPPER_BOUND, bestMove);
+		return alpha;
+	}
+
+	/**
+	 * Fills moveLists[moves] with the columns of next, the table move first and then by the number of cells the
+	 * move leaves this side winning on, ties going to the column nearer the center.
+	 *
+	 * @return the number of moves
+	 */
+	private int orderMoves(long current, long mask, int moves, long next, int tableMove) {
+		int[] list = moveLists[moves];
+		int[] scores = moveScores[moves];
+		int count = 0;
+		for (int col : columnOrder) {
+			long move = next & columnMasks[col];
+			if (move != 0) {
+				int score = col == tableMove ? Integer.MAX_VALUE
+						: Long.bitCount(bits.winningCells(current | move, mask));
+				// insertion sort, stable so that the center first order survives ties
+				int i = count++;
+				while (i > 0 && scores[i - 1] < score) {
+					list[i] = list[i - 1];
+					scores[i] = scores[i - 1];
+					i--;
+				}
+				list[i] = col;
+				scores[i] = score;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return Board.getCanonicalHash of the position, for looking it up in the opening database
+	 */
+	long canonicalHash(long current, long mask, int moves) {
+		long red = moves % 2 == 0 ? current : current ^ mask;
+		long hash = 0;
+		long mirrorHash = 0;
+		for (long bits = mask; bits != 0; bits &= bits - 1) {
+			int index = Long.numberOfTrailingZeros(bits);
+			int color = (red & (1L << index)) != 0 ? 0 : 1;
+			hash ^= Board.ZOBRIST[color][index];
+			mirrorHash ^= Board.ZOBRIST[color][(cols - 1 - index / colBits) * colBits + index % colBits];
+		}
+		return Math.min(hash, mirrorHash);
+	}
+
+	/**
+	 * Proves the score of a position with null-window searches, each halving the range it can lie in. The
+	 * windows are pulled towards 0 while the range spans it, since most positions are close to a draw.
+	 *
+	 * @return the score to the side to move, meaningless if aborted
+	 */
+	int solve(long current, long mask, int moves) {
+		if ((bits.winningCells(current, mask) & bits.playable(mask)) != 0)
+			return (cells + 1 - moves) / 2;
+		int min = -(cells - moves) / 2;
+		int max = (cells + 1 - moves) / 2;
+		while (min < max && !aborted) {
+			int med = min + (max - min) / 2;
+			if (med <= 0 && min / 2 < med)
+				med = min / 2;
+			else if (med >= 0 && max / 2 > med)
+				med = max / 2;
+			int r = negamax(current, mask, moves, med, med + 1);
+			if (r <= med)
+				max = r;
+			else
+				min = r;
+		}
+		return min;
+	}
+
+	/**
+	 * Solves the position on b for the side to move.
+	 *
+	 * @return the score, see the class comment
+	 * @throws IllegalStateException if the time limit ran out first
+	 */
+	public int solve(Board b) {
+		prepare(b);
+		startSearch();
+		long mask = b.redMask | b.yellowMask;
+		int moves = b.getPieceCount();
+		int score = solve(moves % 2 == 0 ? b.redMask : b.yellowMask, mask, moves);
+		if (aborted) {
+			throw new IllegalStateException("Out of time");
+		}
+		return score;
+	}
+
+	private void startSearch() {
+		nodes = 0;
+		deepest = 0;
+		aborted = false;
+		deadline = System.nanoTime() + timeLimit * 1000000;
+		table.newSearch();
+	}
+
+	@Override
+	public int getMove(Board b) {
+		if (!hasSearchListeners()) {
+			return solveMove(b);
+		}
+		long start = System.nanoTime();
+		long hits = table.hits;
+		long probes = table.hits + table.misses;
+		int move = solveMove(b);
+		SearchStats stats = new SearchStats();
+		stats.nodes = nodes;
+		stats.maxDepth = Math.max(0, deepest - b.getPieceCount());
+		stats.tableHits = table.hits - hits;
+		stats.tableProbes = table.hits + table.misses - probes;
+		stats.bookMove = lastMoveFromBook;
+		stats.wallNanos = System.nanoTime() - start;
+		fireMoveSearched(stats);
+		return move;
+	}
+
+	/**
+	 * Picks a move that keeps the proven score: after solving the position, each move is checked with one
+	 * null-window search, in the usual order, until one holds the opponent to minus the score.
+	 */
+	private int solveMove(Board b) {
+		prepare(b);
+		startSearch();
+		lastMoveSolved = true;
+		lastMoveFromBook = false;
+		if (book != null && book.isSolved(b)) {
+			int move = book.getMove(b);
+			if (move >= 0) {
+				lastScore = book.getValue(b);
+				lastMoveFromBook = true;
+				return move;
+			}
+		}
+		int moves = b.getPieceCount();
+		long mask = b.redMask | b.yellowMask;
+		long current = moves % 2 == 0 ? b.redMask : b.yellowMask;
+		long wins = bits.winningCells(current, mask) & bits.playable(mask);
+		if (wins != 0) {
+			lastScore = (cells + 1 - moves) / 2;
+			return Long.numberOfTrailingZeros(wins) / colBits;
+		}
+		long next = bits.nonLosingMoves(current, mask);
+		if (next == 0) {
+			// every move loses at once, so play the first one there is
+			lastScore = -(cells - moves) / 2;
+			for (int col : columnOrder) {
+				if (b.isValidMove(col)) {
+					return col;
+				}
+			}
+			return -1;
+		}
+		int score = solve(current, mask, moves);
+		int count = aborted ? 0 : orderMoves(current, mask, moves, next, -1);
+		// the searches below only use the lists of later plies
+		int[] list = moveLists[moves];
+		for (int i = 0; i < count && !aborted; i++) {
+			int col = list[i];
+			long after = mask | (next & columnMasks[col]);
+			if (-negamax(current ^ mask, after, moves + 1, -score, -score + 1) >= score) {
+				lastScore = score;
+				return col;
+			}
+		}
+		lastMoveSolved = false;
+		Piece toMove = moves % 2 == 0 ? Piece.RED : Piece.YELLOW;
+		if (fallback == null || fallback.getPieceType() != toMove) {
+			fallback = new StrongAI(toMove, 1 << 20);
+			fallback.setVerbose(false);
+		}
+		return fallback.getMove(b);
+	}
+
+	/**
+	 * @param score a score to the side to move
+	 * @param moves the number of pieces on the board
+	 * @return e.g. "win on move 3 from now", counting the moves of both sides
+	 */
+	String describe(int score, int moves) {
+		if (score == 0) {
+			return "draw";
+		}
+		return (score > 0 ? "win" : "loss") + " on move " + pliesToWin(score, moves, cells) + " from now";
+	}
+
+	/**
+	 * @param score a score to the side to move
+	 * @param moves the number of pieces on the board
+	 * @param cells the number of cells of the board
+	 * @return the number of plies from the position to the winning move, counting that move, when both sides play
+	 *         their best; 0 for a draw
+	 */
+	static int pliesToWin(int score, int moves, int cells) {
+		if (score == 0) {
+			return 0;
+		}
+		int winner = score > 0 ? moves : moves + 1; // pieces on the board before the winner's first move
+		int atMoves = cells + 1 - 2 * Math.abs(score); // pieces on the board before the winning move
+		if ((atMoves - winner) % 2 != 0) {
+			atMoves--;
+		}
+		return atMoves - moves + 1;
+	}
+
+	/**
+	 * Solves every position of the first plies and writes the results as an opening database for the solver.
+	 *
+	 * The positions are solved a ply at a time, the last ply first. Every ply is solved with the results of the
+	 * plies after it already in the database, so only the last ply is solved from scratch; those before it stop
+	 * as soon as they reach a known position. That makes the cost about that of solving the last ply alone: on
+	 * the standard board some 91,000 positions at ply 8, each a second or so on one core.
+	 *
+	 * @param file    where to write the database
+	 * @param plies   positions with up to this many pieces are covered
+	 * @param threads number of positions to solve at once
+	 */
+	public static void generateBook(File file, int rows, int cols, int plies, int threads) throws IOException {
+		List<Board> boards = OpeningBook.positions(rows, cols, plies);
+		List<long[]> results = new ArrayList<long[]>();
+		OpeningBook solved = null;
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			for (int ply = plies; ply >= 0; ply--) {
+				List<Board> layer = new ArrayList<Board>();
+				for (Board b : boards) {
+					if (b.getPieceCount() == ply) {
+						layer.add(b);
+					}
+				}
+				results.addAll(solveAll(layer, solved, pool, threads));
+				solved = new OpeningBook(
+						OpeningBook.encode(rows, cols, plies, results.toArray(new long[results.size()][])));
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		OpeningBook.write(file, rows, cols, plies, results.toArray(new long[results.size()][]));
+	}
+
+	/**
+	 * Solves each board on the pool, using the given database.
+	 *
+	 * @return the book entries for the boards
+	 */
+	private static List<long[]> solveAll(final List<Board> boards, final OpeningBook solved, ExecutorService pool,
+			int threads) throws IOException {
+		final long[][] results = new long[boards.size()][];
+		final AtomicInteger next = new AtomicInteger();
+		List<Future<?>> running = new ArrayList<Future<?>>();
+		for (int t = 0; t < threads; t++) {
+			running.add(pool.submit(new Callable<Void>() {
+				@Override
+				public Void call() {
+					Solver solver = new Solver(Piece.RED);
+					solver.setOpeningBook(solved);
+					int i;
+					while ((i = next.getAndIncrement()) < boards.size()) {
+						Board b = boards.get(i);
+						int col = solver.getMove(b);
+						if (b.isMirrored()) {
+							col = b.mirrorColumn(col);
+						}
+						results[i] = new long[] { b.getCanonicalHash(), col, OpeningBook.SOLVED, solver.getLastScore() };
+					}
+					return null;
+				}
+			}));
+		}
+		try {
+			for (Future<?> f : running) {
+				f.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while solving the openings");
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Solve failed", e.getCause());
+		}
+		return java.util.Arrays.asList(results);
+	}
+
+	/**
+	 * @param moves columns numbered from 1, e.g. "4453", the usual notation for Connect 4 positions
+	 * @return the position after those moves on a standard board
+	 * @throws IllegalArgumentException if a move is not a column or not legal
+	 */
+	static Board parse(String moves) {
+		Board b = new Board(6, 7);
+		for (int i = 0; i < moves.length(); i++) {
+			int col = moves.charAt(i) - '1';
+			Piece p = b.getPieceCount() % 2 == 0 ? Piece.RED : Piece.YELLOW;
+			if (!b.placePiece(col, p) || b.lastMoveWon()) {
+				throw new IllegalArgumentException("Illegal move " + moves.charAt(i) + " at " + (i + 1) + " in " + moves);
+			}
+		}
+		return b;
+	}
+
+	/**
+	 * Solves one position and returns a line with the moves, the score, the best column (numbered from 1), what
+	 * the score means, the positions searched and the time taken.
+	 */
+	String solveLine(String moves) {
+		Board b = parse(moves);
+		long start = System.nanoTime();
+		int col = getMove(b);
+		long micros = (System.nanoTime() - start) / 1000;
+		if (!lastMoveSolved) {
+			return moves + " ? " + (col + 1) + " unsolved after " + micros / 1000 + " ms";
+		}
+		return moves + " " + lastScore + " " + (col + 1) + " " + describe(lastScore, b.getPieceCount()) + ", "
+				+ nodes + " positions in " + micros + " us";
+	}
+
+	/**
+	 * Usage: java Solver [moves...] solves each position given as columns numbered from 1, or each line of
+	 * standard input if there are none. The database in connect4.solved is used if there is one.
+	 * <pre>
+	 *        java Solver book [file] [plies] [threads]
+	 * </pre>
+	 * writes a solved opening database for the first plies, 8 by default.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length > 0 && args[0].equals("book")) {
+			File file = new File(args.length > 1 ? args[1] : DEFAULT_BOOK);
+			int plies = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+			int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+			long start = System.nanoTime();
+			generateBook(file, 6, 7, plies, threads);
+			System.out.println("Solved " + OpeningBook.open(file).size() + " positions up to ply " + plies + " in "
+					+ (System.nanoTime() - start) / 1000000 + " ms");
+			return;
+		}
+		Solver solver = new Solver(Piece.RED, 1 << 24);
+		solver.setOpeningBook(OpeningBook.openIfPresent(new File(DEFAULT_BOOK)));
+		if (args.length > 0) {
+			for (String moves : args) {
+				System.out.println(solver.solveLine(moves));
+			}
+			return;
+		}
+		BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+		String line;
+		while ((line = in.readLine()) != null) {
+			line = line.trim();
+			if (!line.isEmpty()) {
+				try {
+					System.out.println(solver.solveLine(line.split("\\s+")[0]));
+				} catch (IllegalArgumentException e) {
+					System.out.println(line + " error: " + e.getMessage());
+				}
+			}
+		}
+	}
+}
@@ -1,3 +1,12 @@
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
 /**
  * A player that uses minimax algorithm and still-in-development heuristic to
  * determine best possible moves. Connect 4 is complicated enough that the
@@ -14,104 +23,251 @@
  */
 public class StrongAI extends Player {
 
+	/**
+	 * Number of plies searched below each root move.
+	 */
+	static final int SEARCH_DEPTH = 6;
+
+	/**
+	 * Number of plies searched below each root move by this AI, SEARCH_DEPTH unless changed.
+	 */
+	int searchDepth = SEARCH_DEPTH;
+
+	/**
+	 * Depth at which alphaBeta stops and evaluates. searchDepth unless iterative deepening is running.
+	 */
+	int maxDepth = SEARCH_DEPTH;
+
+	/**
+	 * Time allowed per move in milliseconds, or 0 to always search to searchDepth.
+	 */
+	long timeBudget;
+	/**
+	 * System.nanoTime at which the current search must stop, and whether it has.
+	 */
+	long deadline;
+	boolean aborted;
+	/**
+	 * Positions alphaBeta visits between looks at the clock and at stopRequested, and how many are left until the
+	 * next one. Every position counts, including those scored without searching, so the looks come at a steady
+	 * rate.
+	 */
+	static final int CHECK_INTERVAL = 1024;
+	int untilCheck = CHECK_INTERVAL;
+
+	/**
+	 * The depth reached and value found by the last call to getMove.
+	 */
+	int lastDepth;
+	int lastValue;
+
+	/**
+	 * Progress of each move is logged here at FINE. Messages are only built when that level is enabled, so a
+	 * quiet AI does no logging work at all.
+	 */
+	static final Logger LOG = Logger.getLogger(StrongAI.class.getName());
+
+	/**
+	 * Whether getMove reports its progress, when LOG is at FINE.
+	 */
+	boolean verbose = true;
+
+	/**
+	 * Number of threads searching the root moves, and the helpers that run alongside this one when there is
+	 * more than one. Each helper has its own Board copy and move ordering state but shares the table.
+	 */
+	int threads = 1;
+	ExecutorService pool;
+	StrongAI[] helpers;
+	Board[] helperBoards;
+
+	/**
+	 * Progress of a parallel root search: the next root move to hand out and the best result so far.
+	 */
+	AtomicInteger nextRootMove = new AtomicInteger();
+	int rootBestValue;
+	int rootBestMove;
+
+	/**
+	 * When set, positions where the search stops are scored by evaluateBoard, otherwise by evaluateBoardDumb.
+	 */
+	boolean windowHeuristic = true;
+
+	/**
+	 * When set, getMove searches with alphaBeta rather than the plain minimax. Both pick the same move, but
+	 * alphaBeta visits far fewer positions to do so.
+	 */
+	boolean useAlphaBeta;
+
+	/**
+	 * Number of positions visited by the last call to getMove.
+	 */
+	long nodes;
+	/**
+	 * Statistics of the last call to getMove, for its SearchListeners: positions scored by the heuristic,
+	 * alphaBeta cutoffs, and the deepest ply visited.
+	 */
+	long leaves;
+	long cutoffs;
+	int deepest;
+
+	/**
+	 * Move ordering state for alphaBeta, indexed by depth, plus the ordered columns at the root. Sized for the
+	 * board in prepareSearch so that no arrays are created while searching.
+	 */
+	int[][] moveLists;
+	int[][] moveScores;
+	int[] rootMoves;
+	/**
+	 * Two killer moves per depth, i.e. the most recent columns that caused a cutoff at that depth.
+	 */
+	int[][] killers;
+	/**
+	 * History scores per column, one row for the maximizing player and one for the minimizing player.
+	 */
+	int[][] history;
+
+	/**
+	 * Results of earlier alphaBeta searches, shared between moves. Null when disabled.
+	 */
+	TranspositionTable table;
+
+	/**
+	 * Moves to play without searching in the opening, or null.
+	 */
+	OpeningBook book;
+	boolean lastMoveFromBook;
+
+	/**
+	 * Exact scores of late or small board positions, looked up by alphaBeta instead of searching them, or null.
+	 */
+	Tablebase tablebase;
+
+	/**
+	 * Search results shared through a file with other AIs and processes and kept across restarts, or null. Only
+	 * positions searched at least CACHE_DRAFT plies deep go in, the few hundred nearest the root of each search:
+	 * they are the costly ones, and the rest would only push them out. Positions are hashed with cacheSalt, see
+	 * cacheSalt(Board).
+	 */
+	EvaluationCache cache;
+	long cacheSalt;
+	boolean lastMoveFromCache;
+	static final int CACHE_DRAFT = 4;
+
+	/**
+	 * When set, getMove goes on searching in the background after answering: a helper sharing the table searches
+	 * the position after each reply the opponent could make, the reply the table predicts first, while the
+	 * opponent thinks. The moves found are kept by position hash until the next getMove, which plays the one for
+	 * the reply actually made without searching, or stops the helper and searches as usual if there is none.
+	 */
+	boolean pondering;
+	ExecutorService ponderer;
+	StrongAI ponderHelper;
+	Future<?> ponderTask;
+	long[] ponderHashes;
+	int[] ponderMoves;
+	int[] ponderValues;
+	int[] ponderDepths;
+	int ponderCount;
+	boolean lastMovePondered;
+	/**
+	 * Set from another thread to make a search give up at its next check, as if its time had run out.
+	 */
+	volatile boolean stopRequested;
+
+	/**
+	 * Wins are scored 2000 minus the depth they happen at, so anything this close to 2000 is a forced win or
+	 * loss rather than a heuristic value.
+	 */
+	static final int WIN_SCORE = 2000;
+	static final int MAX_PLY = 64;
+
 	public StrongAI(Piece p) {
+		this(p, false);
+	}
+
+	/**
+	 * Creates an AI that searches with alphaBeta and remembers positions in a transposition table. Since the
+	 * table is kept between moves, a position may be valued by a deeper search than the current one.
+	 * 
+	 * @param p             the piece type for this player
+	 * @param tableCapacity the number of positions the table can hold
+	 */
+	public StrongAI(Piece p, int tableCapacity) {
+		this(p, true);
+		table = new TranspositionTable(tableCapacity);
+	}
+
+	/**
+	 * @param p the piece type for this player
+	 * @param useAlphaBeta true to search with alphaBeta instead of minimax
+	 */
+	public StrongAI(Piece p, boolean useAlphaBeta) {
 		super(p);
+		this.useAlphaBeta = useAlphaBeta;
+	}
+
+	/**
+	 * Creates a helper for a parallel search, sharing the table of the given AI.
+	 */
+	private StrongAI(StrongAI parent) {
+		this(parent.piece, true);
+		table = parent.table;
+		windowHeuristic = parent.windowHeuristic;
+		tablebase = parent.tablebase;
+		cache = parent.cache;
+	}
+
+	/**
+	 * Scores a position by the lines of 4 still open to each side, using the window counts the board keeps up
+	 * to date as pieces are placed, so it takes the same few nanoseconds however full the board is.
+	 * 
+	 * @param board
+	 * @return 1000 for a win, -1000 for a loss, otherwise the board's window score from this player's side
+	 */
+	public int evaluateBoard(Board board) {
+		if (board.isWin(super.piece))
+			return 1000;
+		if (board.isWin(opponentPiece()))
+			return -1000;
+		int value = super.piece == Piece.RED ? board.getWindowScore() : -board.getWindowScore();
+		// stay clear of the win scores, however many threats there are
+		return Math.max(-999, Math.min(999, value));
+	}
+
+	int evaluate(Board board) {
+		return windowHeuristic ? evaluateBoard(board) : evaluateBoardDumb(board);
 	}
 
 	/**
 	 * Evaluates the state of the board, with a premium on winning situations and 3
-	 * in a row situations. This heuristic could be developed further to better
-	 * reflect the value of a board.
+	 * in a row situations. Only horizontal rows of 3 are counted; evaluateBoard
+	 * looks at every line of 4 and is used instead unless setWindowHeuristic(false).
 	 * 
-	 * Precondition: board is a standard 7 by 6 connect 4 Board.
+	 * Wins are found with Board.isWin, so they cost the same on any size of board.
 	 * 
 	 * @param board
 	 * @return the value
 	 */
 	public int evaluateBoardDumb(Board board) {
-		int BOARD_ROWS = board.numRows;
-		int BOARD_COLS = board.numCols;
-		// Check horizontals for win
-		for (int row = BOARD_ROWS - 1; row > -1; row--) {
-			for (int startCol = 0; startCol < BOARD_COLS - 3; startCol++) {
-				int streak = 1;
-				int col = startCol;
-				while (col < BOARD_COLS - 1 && board.getPiece(row, col) == board.getPiece(row, col + 1)) {
-					streak++;
-					col++;
-				}
-				if (streak > 3) {
-					if (board.getPiece(row, startCol) == super.piece)
-						return 1000;
-					else if (board.getPiece(row, startCol) != Piece.EMPTY)
-						return -1000;
-				}
-			}
-		}
-
-		// Check verticals for win
-		for (int col = 0; col < BOARD_COLS; col++) {
-			for (int startRow = 0; startRow < BOARD_ROWS - 3; startRow++) {
-				int streak = 1;
-				int row = startRow;
-				while (row < BOARD_ROWS - 1 && board.getPiece(row, col) == board.getPiece(row + 1, col)) {
-					streak++;
-					row++;
-				}
-				if (streak > 3) {
-					if (board.getPiece(startRow, col) == super.piece)
-						return 1000;
-					else if (board.getPiece(startRow, col) != Piece.EMPTY)
-						return -1000;
-				}
-			}
-		}
-
-		// Check diagonals
-		// bottom left corner + up/right
-		int startRow;
-		int startCol;
-		for (startRow = 4; startRow < BOARD_ROWS; startRow++) {
-			for (startCol = 0; startCol < 4; startCol++) {
-				if (board.getPiece(startRow, startCol) != Piece.EMPTY
-						&& board.getPiece(startRow, startCol) == board.getPiece(startRow - 1, startCol + 1)
-						&& board.getPiece(startRow - 1, startCol + 1) == board.getPiece(startRow - 2, startCol + 2)
-						&& board.getPiece(startRow - 2, startCol + 2) == board.getPiece(startRow - 3, startCol + 3)) {
-					if (board.getPiece(startRow, startCol) == super.piece) {
-						return 1000;
-					}
-					return -1000;
-				}
-			}
-		}
-		// top left corner and down/right for wins
-		for (startRow = 0; startRow < 3; startRow++) {
-			for (startCol = 0; startCol < 4; startCol++) {
-				if (board.getPiece(startRow, startCol) != Piece.EMPTY
-						&& board.getPiece(startRow, startCol) == board.getPiece(startRow + 1, startCol + 1)
-						&& board.getPiece(startRow + 1, startCol + 1) == board.getPiece(startRow + 2, startCol + 2)
-						&& board.getPiece(startRow + 2, startCol + 2) == board.getPiece(startRow + 3, startCol + 3)) {
-					if (board.getPiece(startRow, startCol) == super.piece) {
-						return 1000;
-					}
-					return -1000;
-				}
-			}
-		}
+		if (board.isWin(super.piece))
+			return 1000;
+		if (board.isWin(opponentPiece()))
+			return -1000;
 		int value = 0;
 		// horizontal check
 		for (int row = 0; row < board.numRows; row++) {
-			for (int col = 0; col < 5; col++) {
+			for (int col = 0; col + 2 < board.numCols; col++) {
 				if (board.getPiece(row, col) != Piece.EMPTY && board.getPiece(row, col) == board.getPiece(row, col + 1)
 						&& board.getPiece(row, col + 1) == board.getPiece(row, col + 2)) {
-					if (board.getPiece(row, col - 1) == Piece.EMPTY) {
+					if (col > 0 && board.getPiece(row, col - 1) == Piece.EMPTY) {
 						if (board.getPiece(row, col) == super.piece) {
 							value += 50;
 						} else {
 							value -= 50;
 						}
 					}
-					if (board.getPiece(row, col + 3) == Piece.EMPTY) {
+					if (col + 3 < board.numCols && board.getPiece(row, col + 3) == Piece.EMPTY) {
 						if (board.getPiece(row, col + 2) == super.piece) {
 							value += 50;
 						} else {
@@ -134,20 +290,24 @@ public class StrongAI extends Player {
 	 * @return
 	 */
 	public int minimax(Board b, int depth, boolean isMaximizingPlayer) {
-		int value = evaluateBoardDumb(b);
-		if (value == 1000)
-			return 1000 - depth + value;
-		if (value == -1000)
-			return -1000 + depth + value;
-		if (depth > 5)
-			return value;
+		nodes++;
+		if (depth >= deepest)
+			deepest = depth + 1;
+		if (b.lastMoveWon())
+			return b.getLastPiece() == super.piece ? WIN_SCORE - depth : -WIN_SCORE + depth;
+		if (!b.movesRemaining())
+			return 0; // tie
+		if (depth >= searchDepth) {
+			leaves++;
+			return evaluate(b);
+		}
 		int col = -1;
 
 		if (isMaximizingPlayer) {
 			int newValue = Integer.MIN_VALUE;
 			int bestValue = Integer.MIN_VALUE;
 			for (col = 0; col < b.numCols; col++) {
-				if (b.isValidMove(col)) {
+				if (b.isValidMove(col) && !isMirrorMove(b, col)) {
 					b.placePiece(col, super.piece);
 					newValue = minimax(b, depth + 1, false);
 					b.undoMove(col);
@@ -166,7 +326,7 @@ public class StrongAI extends Player {
 			int newValue = Integer.MAX_VALUE;
 			int bestValue = Integer.MAX_VALUE;
 			for (col = 0; col < b.numCols; col++) {
-				if (b.isValidMove(col)) {
+				if (b.isValidMove(col) && !isMirrorMove(b, col)) {
 					b.placePiece(col, pieceToPlace);
 					newValue = minimax(b, depth + 1, true);
 					b.undoMove(col);
@@ -182,13 +342,691 @@ public class StrongAI extends Player {
 
 	}
 
+	/**
+	 * Same as minimax, but skips branches that cannot change the result. Values strictly between alpha and beta
+	 * are exact; a value at or below alpha only tells us the true value is no greater, and a value at or above
+	 * beta that it is no smaller. Columns are tried center first, then killer moves and history scores take over
+	 * as cutoffs are found.
+	 * Positions the tablebase covers, if there is one, are scored from it without searching.
+	 * 
+	 * @param b
+	 * @param depth
+	 * @param alpha the value the maximizing player is already guaranteed elsewhere
+	 * @param beta  the value the minimizing player is already guaranteed elsewhere
+	 * @param isMaximizingPlayer
+	 * @return the value
+	 */
+	public int alphaBeta(Board b, int depth, int alpha, int beta, boolean isMaximizingPlayer) {
+		nodes++;
+		if (--untilCheck == 0) {
+			untilCheck = CHECK_INTERVAL;
+			if (stopRequested || timeBudget > 0 && maxDepth > 1 && System.nanoTime() - deadline > 0)
+				aborted = true;
+		}
+		if (aborted)
+			return 0;
+		if (depth >= deepest)
+			deepest = depth + 1;
+		if (b.lastMoveWon())
+			return b.getLastPiece() == super.piece ? WIN_SCORE - depth : -WIN_SCORE + depth;
+		if (!b.movesRemaining())
+			return 0; // tie
+		if (tablebase != null) {
+			int score = tablebase.probe(b);
+			if (score != Tablebase.UNKNOWN)
+				return tablebaseValue(score, b, depth, isMaximizingPlayer);
+		}
+		if (depth >= maxDepth) {
+			leaves++;
+			return evaluate(b);
+		}
+		int draft = maxDepth - depth;
+		int tableMove = -1;
+		long entry = table != null ? table.probe(b.getCanonicalHash()) : TranspositionTable.MISS;
+		if (cache != null && draft >= CACHE_DRAFT
+				&& (entry == TranspositionTable.MISS || TranspositionTable.draft(entry) < draft)) {
+			entry = probeCache(b, entry);
+		}
+		if (entry != TranspositionTable.MISS) {
+			tableMove = TranspositionTable.move(entry);
+			if (tableMove >= 0 && b.isMirrored()) {
+				tableMove = b.mirrorColumn(tableMove);
+			}
+			if (TranspositionTable.draft(entry) >= draft) {
+				int stored = fromTable(TranspositionTable.value(entry), depth);
+				int bound = TranspositionTable.bound(entry);
+				if (bound == TranspositionTable.EXACT || (bound == TranspositionTable.LOWER_BOUND && stored >= beta)
+						|| (bound == TranspositionTable.UPPER_BOUND && stored <= alpha)) {
+					return stored;
+				}
+			}
+		}
+
+		int alphaOrig = alpha;
+		int betaOrig = beta;
+		int side = isMaximizingPlayer ? 0 : 1;
+		int count = orderMoves(b, depth, side, tableMove);
+		int[] moves = moveLists[depth];
+		int bestValue;
+		int bestMove = -1;
+		if (isMaximizingPlayer) {
+			bestValue = Integer.MIN_VALUE;
+			for (int i = 0; i < count; i++) {
+				int col = moves[i];
+				b.placePiece(col, super.piece);
+				int newValue = alphaBeta(b, depth + 1, alpha, beta, false);
+				b.undoMove(col);
+				if (aborted)
+					return 0;
+				if (newValue > bestValue) {
+					bestValue = newValue;
+					bestMove = col;
+					if (bestValue > alpha)
+						alpha = bestValue;
+					if (alpha >= beta) {
+						recordCutoff(depth, side, col);
+						break;
+					}
+				}
+			}
+		} else {
+			Piece pieceToPlace = opponentPiece();
+			bestValue = Integer.MAX_VALUE;
+			for (int i = 0; i < count; i++) {
+				int col = moves[i];
+				b.placePiece(col, pieceToPlace);
+				int newValue = alphaBeta(b, depth + 1, alpha, beta, true);
+				b.undoMove(col);
+				if (aborted)
+					return 0;
+				if (newValue < bestValue) {
+					bestValue = newValue;
+					bestMove = col;
+					if (bestValue < beta)
+						beta = bestValue;
+					if (alpha >= beta) {
+						recordCutoff(depth, side, col);
+						break;
+					}
+				}
+			}
+		}
+
+		if (table != null || cache != null && draft >= CACHE_DRAFT) {
+			int bound = TranspositionTable.EXACT;
+			if (bestValue <= alphaOrig) {
+				bound = TranspositionTable.UPPER_BOUND;
+			} else if (bestValue >= betaOrig) {
+				bound = TranspositionTable.LOWER_BOUND;
+			}
+			if (bestMove >= 0 && b.isMirrored()) {
+				bestMove = b.mirrorColumn(bestMove);
+			}
+			if (table != null) {
+				table.store(b.getCanonicalHash(), toTable(bestValue, depth), draft, bound, bestMove);
+			}
+			if (cache != null && draft >= CACHE_DRAFT) {
+				cache.store(b.getCanonicalHash() ^ cacheSalt, toTable(bestValue, depth), draft, bound, bestMove);
+			}
+		}
+		return bestValue;
+	}
+
+	/**
+	 * Turns an exact score from the tablebase, to the side to move, into the value alphaBeta would find for it by
+	 * searching to the end: a win is worth what it would be when the winning move is found, that many plies on.
+	 */
+	int tablebaseValue(int score, Board b, int depth, boolean isMaximizingPlayer) {
+		if (score == 0)
+			return 0;
+		int value = WIN_SCORE - depth - Solver.pliesToWin(score, b.getPieceCount(), b.numRows * b.numCols);
+		return (score > 0) == isMaximizingPlayer ? value : -value;
+	}
+
+	/**
+	 * @param entry what the table has for the position, or MISS
+	 * @return the cache's entry for the position if it was searched deeper, else entry
+	 */
+	private long probeCache(Board b, long entry) {
+		long cached = cache.probe(b.getCanonicalHash() ^ cacheSalt);
+		if (cached != TranspositionTable.MISS
+				&& (entry == TranspositionTable.MISS || TranspositionTable.draft(cached) > TranspositionTable.draft(entry))) {
+			return cached;
+		}
+		return entry;
+	}
+
+	/**
+	 * Values are from this AI's side and depend on its heuristic, so AIs that would find different values for
+	 * a position keep them apart in a shared cache by xor'ing its hash with a salt made of those and the board
+	 * size.
+	 */
+	long cacheSalt(Board b) {
+		long salt = (super.piece == Piece.RED ? 1 : 2) | (windowHeuristic ? 4 : 0) | b.numRows << 8 | b.numCols << 16;
+		return salt * 0x9E3779B97F4A7C15L;
+	}
+
+	/**
+	 * Win scores depend on how far from the root the win happens. The table holds them relative to the stored
+	 * position instead, so they stay correct when the position is reached at another depth or in a later search.
+	 */
+	static int toTable(int value, int depth) {
+		if (value >= WIN_SCORE - MAX_PLY && value <= WIN_SCORE)
+			return value + depth;
+		if (value <= -WIN_SCORE + MAX_PLY && value >= -WIN_SCORE)
+			return value - depth;
+		return value;
+	}
+
+	static int fromTable(int value, int depth) {
+		if (value >= WIN_SCORE - MAX_PLY && value <= WIN_SCORE)
+			return value - depth;
+		if (value <= -WIN_SCORE + MAX_PLY && value >= -WIN_SCORE)
+			return value + depth;
+		return value;
+	}
+
+	/**
+	 * In a position that is its own mirror image, a column right of the center leads to the mirror image of the
+	 * position reached by a column left of it, which has the same value. Those only need searching once, and
+	 * keeping the left one gives the same move as searching both, since ties go to the lowest column.
+	 * 
+	 * @return true if col can be skipped
+	 */
+	static boolean isMirrorMove(Board b, int col) {
+		return col > (b.numCols - 1) / 2 && b.isSymmetric();
+	}
+
+	/**
+	 * Fills moveLists[depth] with the valid columns, less mirrored ones, best candidates first: the move from the transposition
+	 * table, the two killer moves for this depth, then by history score, with columns nearer the center winning
+	 * ties.
+	 * 
+	 * @param tableMove the best move stored for this position, or -1
+	 * @return the number of valid columns
+	 */
+	int orderMoves(Board b, int depth, int side, int tableMove) {
+		int[] moves = moveLists[depth];
+		int[] scores = moveScores[depth];
+		int[] killer = killers[depth];
+		int[] hist = history[side];
+		int count = 0;
+		for (int col = 0; col < b.numCols; col++) {
+			if (b.isValidMove(col) && !isMirrorMove(b, col)) {
+				int score;
+				if (col == tableMove) {
+					score = Integer.MAX_VALUE;
+				} else if (col == killer[0]) {
+					score = Integer.MAX_VALUE - 1;
+				} else if (col == killer[1]) {
+					score = Integer.MAX_VALUE - 2;
+				} else {
+					score = hist[col] * 2 * b.numCols + b.numCols - Math.abs(2 * col - b.numCols + 1);
+				}
+				// insertion sort, the lists are at most numCols long
+				int i = count++;
+				while (i > 0 && scores[i - 1] < score) {
+					moves[i] = moves[i - 1];
+					scores[i] = scores[i - 1];
+					i--;
+				}
+				moves[i] = col;
+				scores[i] = score;
+			}
+		}
+		return count;
+	}
+
+	private void recordCutoff(int depth, int side, int col) {
+		cutoffs++;
+		int[] killer = killers[depth];
+		if (killer[0] != col) {
+			killer[1] = killer[0];
+			killer[0] = col;
+		}
+		int remaining = maxDepth - depth;
+		if (history[side][col] < 1 << 16) {
+			history[side][col] += remaining * remaining;
+		}
+	}
+
+	/**
+	 * Resets the node count and sizes the move ordering tables for the given board.
+	 */
+	void prepareSearch(Board b) {
+		if (table != null) {
+			table.newSearch();
+		}
+		resetOrdering(b);
+		if (threads > 1 && useAlphaBeta) {
+			if (pool == null) {
+				startHelpers();
+			}
+			for (int i = 0; i < helpers.length; i++) {
+				helpers[i].windowHeuristic = windowHeuristic;
+				helpers[i].tablebase = tablebase;
+				helpers[i].cache = cache;
+				helpers[i].resetOrdering(b);
+				helperBoards[i] = new Board(b);
+			}
+		}
+	}
+
+	private void resetOrdering(Board b) {
+		cacheSalt = cacheSalt(b);
+		nodes = 0;
+		leaves = 0;
+		cutoffs = 0;
+		deepest = 0;
+		aborted = false;
+		untilCheck = CHECK_INTERVAL;
+		int plies = b.numRows * b.numCols + 1;
+		if (moveLists == null || moveLists.length != plies || moveLists[0].length != b.numCols) {
+			moveLists = new int[plies][b.numCols];
+			moveScores = new int[plies][b.numCols];
+			killers = new int[plies][2];
+			history = new int[2][b.numCols];
+			rootMoves = new int[b.numCols];
+		}
+		for (int[] killer : killers) {
+			killer[0] = -1;
+			killer[1] = -1;
+		}
+		for (int[] hist : history) {
+			java.util.Arrays.fill(hist, 0);
+		}
+	}
+
+	Piece opponentPiece() {
+		return getPieceType() == Piece.RED ? Piece.YELLOW : Piece.RED;
+	}
+
+	/**
+	 * @return the transposition table, or null if this AI does not use one
+	 */
+	public TranspositionTable getTranspositionTable() {
+		return table;
+	}
+
+	/**
+	 * Splits the alphaBeta search across several threads. The best root move is searched first on the calling
+	 * thread, then the remaining root moves are shared out between it and the helpers. The move picked is the
+	 * same as with a single thread.
+	 * 
+	 * @param n number of threads to search with
+	 */
+	public void setThreads(int n) {
+		if (n < 1) {
+			throw new IllegalArgumentException("Need at least one thread: " + n);
+		}
+		if (pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+		threads = n;
+		if (n > 1) {
+			useAlphaBeta = true;
+		}
+	}
+
+	private void startHelpers() {
+		pool = Executors.newFixedThreadPool(threads - 1, daemonThreads("StrongAI helper"));
+		helpers = new StrongAI[threads - 1];
+		helperBoards = new Board[threads - 1];
+		for (int i = 0; i < helpers.length; i++) {
+			helpers[i] = new StrongAI(this);
+		}
+	}
+
+	private static ThreadFactory daemonThreads(final String name) {
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, name);
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+
+	/**
+	 * Turns pondering on or off. While on, getMove keeps searching the opponent's likely replies on a thread of
+	 * its own after it has answered, so that the next move is often ready as soon as it is asked for. Pondering
+	 * always searches with alphaBeta.
+	 * 
+	 * @param on true to search on the opponent's time
+	 */
+	public void setPondering(boolean on) {
+		stopPondering();
+		pondering = on;
+		ponderCount = 0;
+		if (on) {
+			useAlphaBeta = true;
+		} else if (ponderer != null) {
+			ponderer.shutdown();
+			ponderer = null;
+			ponderHelper = null;
+		}
+	}
+
+	/**
+	 * Stops the background search, if any, and waits for it to let go of the table. getMove does this itself;
+	 * call it when the game ends so that the thread does not go on searching a position nobody will play.
+	 */
+	public void stopPondering() {
+		if (ponderTask == null) {
+			return;
+		}
+		ponderHelper.stopRequested = true;
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					ponderTask.get();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true; // the helper stops within a few thousand positions, so just wait
+				}
+			}
+		} catch (ExecutionException e) {
+			ponderCount = 0;
+			throw new IllegalStateException("Pondering failed", e.getCause());
+		} finally {
+			ponderTask = null;
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Plays move on a copy of b and starts pondering the opponent's replies to it, unless it ends the game.
+	 */
+	private void startPondering(Board b, int move) {
+		ponderCount = 0;
+		final Board next = new Board(b);
+		next.placePiece(move, super.piece);
+		if (next.lastMoveWon() || !next.movesRemaining()) {
+			return;
+		}
+		if (ponderer == null) {
+			ponderer = Executors.newSingleThreadExecutor(daemonThreads("StrongAI ponder"));
+			ponderHelper = new StrongAI(this);
+			ponderHelper.verbose = false;
+		}
+		if (ponderHashes == null || ponderHashes.length != b.numCols) {
+			ponderHashes = new long[b.numCols];
+			ponderMoves = new int[b.numCols];
+			ponderValues = new int[b.numCols];
+			ponderDepths = new int[b.numCols];
+		}
+		ponderHelper.searchDepth = searchDepth;
+		ponderHelper.windowHeuristic = windowHeuristic;
+		ponderHelper.tablebase = tablebase;
+		ponderHelper.cache = cache;
+		ponderHelper.timeBudget = timeBudget;
+		ponderHelper.stopRequested = false;
+		ponderTask = ponderer.submit(new Runnable() {
+			@Override
+			public void run() {
+				ponder(next);
+			}
+		});
+	}
+
+	/**
+	 * Runs on the ponder thread. Searches the position after each opponent reply in b with ponderHelper, the
+	 * reply stored in the table first and then center out, and records every search that finished before the
+	 * helper was told to stop. Replies that end the game or lead into the opening book are not searched.
+	 */
+	private void ponder(Board b) {
+		StrongAI helper = ponderHelper;
+		Piece opponent = opponentPiece();
+		int predicted = -1;
+		if (table != null) {
+			long entry = table.probe(b.getCanonicalHash());
+			if (entry != TranspositionTable.MISS && TranspositionTable.move(entry) >= 0) {
+				predicted = TranspositionTable.move(entry);
+				if (b.isMirrored()) {
+					predicted = b.mirrorColumn(predicted);
+				}
+			}
+		}
+		int center = (b.numCols - 1) / 2;
+		for (int i = -1; i < 2 * b.numCols && !helper.stopRequested; i++) {
+			int col = i < 0 ? predicted : center + (i % 2 == 0 ? i / 2 : -(i + 1) / 2);
+			if ((i >= 0 && col == predicted) || !b.isValidMove(col)) {
+				continue;
+			}
+			b.placePiece(col, opponent);
+			if (!b.lastMoveWon() && b.movesRemaining() && (book == null || book.getMove(b) < 0)) {
+				int move = helper.searchMove(b);
+				if (!helper.stopRequested && move >= 0) {
+					ponderHashes[ponderCount] = b.getHash();
+					ponderMoves[ponderCount] = move;
+					ponderValues[ponderCount] = helper.lastValue;
+					ponderDepths[ponderCount] = helper.lastDepth;
+					ponderCount++;
+				}
+			}
+			b.undoMove(col);
+		}
+	}
+
+	/**
+	 * Switches to iterative deepening: getMove searches depth 1, 2, 3 and so on with alphaBeta, and answers with
+	 * the best move of the deepest search that finished in time.
+	 * 
+	 * @param millis time allowed per move, or 0 to go back to always searching to searchDepth
+	 */
+	public void setTimeBudget(long millis) {
+		timeBudget = millis;
+		if (millis > 0) {
+			useAlphaBeta = true;
+		}
+	}
+
+	/**
+	 * @param book moves to play in the positions it covers instead of searching, or null to always search
+	 */
+	public void setOpeningBook(OpeningBook book) {
+		this.book = book;
+	}
+
+	/**
+	 * @param tablebase exact scores for alphaBeta to use in the positions it covers instead of searching them,
+	 *                  or null to always search
+	 */
+	public void setTablebase(Tablebase tablebase) {
+		this.tablebase = tablebase;
+	}
+
+	/**
+	 * @param cache where to share search results with other AIs and processes, or null
+	 */
+	public void setEvaluationCache(EvaluationCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * @param depth number of plies to search below each root move when there is no time budget
+	 */
+	public void setSearchDepth(int depth) {
+		if (depth < 0 || depth >= MAX_PLY) {
+			throw new IllegalArgumentException("Search depth out of range: " + depth);
+		}
+		searchDepth = depth;
+	}
+
+	/**
+	 * @param windows true to score positions with evaluateBoard, false for the older evaluateBoardDumb
+	 */
+	public void setWindowHeuristic(boolean windows) {
+		windowHeuristic = windows;
+	}
+
+	/**
+	 * @param verbose false to keep getMove from logging anything even at FINE, e.g. in headless games
+	 */
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	/**
+	 * @return the number of plies searched below each root move by the last call to getMove, 0 for a book move
+	 */
+	public int getLastDepth() {
+		return lastDepth;
+	}
+
+	/**
+	 * @return the value of the move returned by the last call to getMove
+	 */
+	public int getLastValue() {
+		return lastValue;
+	}
+
+	/**
+	 * @return the number of positions visited by the last call to getMove
+	 */
+	public long getNodeCount() {
+		return nodes;
+	}
+
 	@Override
 	public int getMove(Board b) {
-		System.out.println("Getting AI move");
+		stopPondering();
+		int move;
+		if (!hasSearchListeners()) {
+			move = searchMove(b);
+		} else {
+			move = searchMoveWithStats(b);
+		}
+		if (pondering && move >= 0) {
+			startPondering(b, move);
+		}
+		return move;
+	}
+
+	/**
+	 * Looks the position up in the cache, as stored at the end of searchMove or by alphaBeta.
+	 *
+	 * @return the move stored for the position if it was searched at least searchDepth plies below each move
+	 *         and its value is exact, else -1
+	 */
+	private int cachedMove(Board b) {
+		long entry = cache.probe(b.getCanonicalHash() ^ cacheSalt(b));
+		int move = TranspositionTable.move(entry);
+		if (entry == TranspositionTable.MISS || TranspositionTable.bound(entry) != TranspositionTable.EXACT
+				|| TranspositionTable.draft(entry) <= searchDepth || move < 0) {
+			return -1;
+		}
+		if (b.isMirrored()) {
+			move = b.mirrorColumn(move);
+		}
+		if (!b.isValidMove(move)) {
+			return -1;
+		}
+		nodes = 0;
+		leaves = 0;
+		cutoffs = 0;
+		deepest = 0;
+		lastDepth = TranspositionTable.draft(entry) - 1;
+		lastValue = fromTable(TranspositionTable.value(entry), -1);
+		lastMoveFromCache = true;
+		return move;
+	}
+
+	private int searchMoveWithStats(Board b) {
+		long start = System.nanoTime();
+		long hits = table != null ? table.hits : 0;
+		long probes = table != null ? table.hits + table.misses : 0;
+		int move = searchMove(b);
+		SearchStats stats = new SearchStats();
+		stats.nodes = nodes;
+		stats.leaves = leaves;
+		stats.cutoffs = cutoffs;
+		stats.maxDepth = deepest;
+		if (table != null) {
+			stats.tableHits = table.hits - hits;
+			stats.tableProbes = table.hits + table.misses - probes;
+		}
+		stats.bookMove = lastMoveFromBook;
+		stats.ponderHit = lastMovePondered;
+		stats.cacheMove = lastMoveFromCache;
+		stats.wallNanos = System.nanoTime() - start;
+		fireMoveSearched(stats);
+		return move;
+	}
+
+	private int searchMove(Board b) {
+		if (verbose && LOG.isLoggable(Level.FINE))
+			LOG.fine("Getting AI move");
+		lastMoveFromBook = false;
+		lastMoveFromCache = false;
+		if (book != null) {
+			int move = book.getMove(b);
+			if (move >= 0) {
+				nodes = 0;
+				leaves = 0;
+				cutoffs = 0;
+				deepest = 0;
+				lastDepth = 0;
+				lastValue = book.getValue(b);
+				lastMoveFromBook = true;
+				return move;
+			}
+		}
+		lastMovePondered = false;
+		for (int i = 0; i < ponderCount; i++) {
+			if (ponderHashes[i] == b.getHash()) {
+				nodes = 0;
+				leaves = 0;
+				cutoffs = 0;
+				deepest = 0;
+				lastDepth = ponderDepths[i];
+				lastValue = ponderValues[i];
+				lastMovePondered = true;
+				if (verbose && LOG.isLoggable(Level.FINE))
+					LOG.fine("Reply was pondered");
+				return ponderMoves[i];
+			}
+		}
+		if (cache != null && useAlphaBeta && timeBudget == 0) {
+			int move = cachedMove(b);
+			if (move >= 0) {
+				return move;
+			}
+		}
+		prepareSearch(b);
+		if (useAlphaBeta) {
+			int move;
+			if (timeBudget > 0) {
+				move = iterativeDeepening(b);
+			} else {
+				maxDepth = searchDepth;
+				lastDepth = maxDepth;
+				move = searchRoot(b, -1);
+			}
+			if (cache != null && move >= 0 && (timeBudget > 0 ? lastDepth > 0 : !aborted)) {
+				// the root is one ply above depth 0, and searched one ply deeper than the moves below it
+				cache.store(b.getCanonicalHash() ^ cacheSalt, toTable(lastValue, -1), lastDepth + 1,
+						TranspositionTable.EXACT, b.isMirrored() ? b.mirrorColumn(move) : move);
+			}
+			if (helpers != null) {
+				for (StrongAI helper : helpers) {
+					nodes += helper.nodes;
+					leaves += helper.leaves;
+					cutoffs += helper.cutoffs;
+					deepest = Math.max(deepest, helper.deepest);
+				}
+			}
+			return move;
+		}
 		int bestValue = Integer.MIN_VALUE;
 		int bestMove = -1;
 		for (int col = 0; col < b.numCols; col++) {
-			if (b.isValidMove(col)) {
+			if (b.isValidMove(col) && !isMirrorMove(b, col)) {
 				b.placePiece(col, super.piece);
 				int value = minimax(b, 0, false);
 				if (value > bestValue) {
@@ -198,7 +1036,155 @@ public class StrongAI extends Player {
 				b.undoMove(col);
 			}
 		}
+		lastDepth = searchDepth;
+		lastValue = bestValue;
+		return bestMove;
+	}
+
+	/**
+	 * Searches one ply deeper at a time until the time budget runs out. Each iteration starts with the best move
+	 * of the one before, and the killer, history and table entries it left behind order the rest. The first
+	 * iteration always runs to completion so that there is a move to return.
+	 */
+	private int iterativeDeepening(Board b) {
+		deadline = System.nanoTime() + timeBudget * 1000000;
+		int empty = b.numRows * b.numCols - b.getPieceCount();
+		int bestMove = -1;
+		int bestValue = 0;
+		lastDepth = 0;
+		for (maxDepth = 1; maxDepth == 1 || maxDepth < empty; maxDepth++) {
+			int move = searchRoot(b, bestMove);
+			if (aborted)
+				break;
+			bestMove = move;
+			bestValue = lastValue;
+			lastDepth = maxDepth;
+			if (bestValue >= WIN_SCORE - MAX_PLY || bestValue <= -WIN_SCORE + MAX_PLY)
+				break; // the outcome is already forced
+		}
+		lastValue = bestValue;
+		if (verbose && LOG.isLoggable(Level.FINE))
+			LOG.fine("Searched to depth " + lastDepth);
+		return bestMove;
+	}
+
+	private int searchRoot(Board b, int firstMove) {
+		if (threads > 1) {
+			return parallelRoot(b, firstMove);
+		}
+		return alphaBetaRoot(b, firstMove);
+	}
+
+	/**
+	 * Root of the parallel alphaBeta search. Ties are broken the same way as in alphaBetaRoot; a root move only
+	 * ever finishes with a value equal to the best when it is an exact value or lies right of the best column.
+	 */
+	private int parallelRoot(Board b, int firstMove) {
+		final int count = orderMoves(b, 0, 0, firstMove);
+		System.arraycopy(moveLists[0], 0, rootMoves, 0, count);
+		rootBestValue = Integer.MIN_VALUE;
+		rootBestMove = -1;
+		if (count == 0) {
+			return -1;
+		}
+		searchRootMove(this, b, rootMoves[0]);
+		nextRootMove.set(1);
+		Future<?>[] running = new Future<?>[helpers.length];
+		for (int i = 0; i < helpers.length; i++) {
+			final StrongAI helper = helpers[i];
+			final Board copy = helperBoards[i];
+			helper.maxDepth = maxDepth;
+			helper.timeBudget = timeBudget;
+			helper.deadline = deadline;
+			helper.aborted = false;
+			running[i] = pool.submit(new Runnable() {
+				@Override
+				public void run() {
+					helper.searchRootMoves(StrongAI.this, copy, count);
+				}
+			});
+		}
+		searchRootMoves(this, b, count);
+		for (int i = 0; i < running.length; i++) {
+			try {
+				running[i].get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				aborted = true;
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("Helper search failed", e.getCause());
+			}
+			aborted |= helpers[i].aborted;
+		}
+		lastValue = rootBestValue;
+		return rootBestMove;
+	}
+
+	/**
+	 * Searches root moves handed out by parent until there are none left or time is up.
+	 */
+	private void searchRootMoves(StrongAI parent, Board b, int count) {
+		int i;
+		while (!aborted && (i = parent.nextRootMove.getAndIncrement()) < count) {
+			parent.searchRootMove(this, b, parent.rootMoves[i]);
+		}
+	}
 
+	/**
+	 * Searches a single root move of this AI's parallel search on the searcher's board, and records the result.
+	 */
+	private void searchRootMove(StrongAI searcher, Board b, int col) {
+		int alpha;
+		synchronized (this) {
+			alpha = rootBestValue;
+			if (col < rootBestMove && rootBestValue != Integer.MIN_VALUE) {
+				alpha = rootBestValue - 1;
+			}
+		}
+		b.placePiece(col, super.piece);
+		int value = searcher.alphaBeta(b, 0, alpha, Integer.MAX_VALUE, false);
+		b.undoMove(col);
+		if (searcher.aborted) {
+			return;
+		}
+		synchronized (this) {
+			if (value > rootBestValue || (value == rootBestValue && col < rootBestMove)) {
+				rootBestValue = value;
+				rootBestMove = col;
+			}
+		}
+	}
+
+	/**
+	 * Root of the alphaBeta search. Columns are searched center first, but ties are still broken towards the
+	 * lowest column so that the move matches the one minimax would pick: columns left of the current best are
+	 * searched with alpha one below the best value, so that an equal value is reported exactly.
+	 * 
+	 * @param firstMove a column to search first, or -1
+	 */
+	private int alphaBetaRoot(Board b, int firstMove) {
+		int count = orderMoves(b, 0, 0, firstMove);
+		int[] moves = rootMoves;
+		System.arraycopy(moveLists[0], 0, moves, 0, count);
+		int bestValue = Integer.MIN_VALUE;
+		int bestMove = -1;
+		for (int i = 0; i < count; i++) {
+			int col = moves[i];
+			int alpha = bestValue;
+			if (col < bestMove && bestValue != Integer.MIN_VALUE) {
+				alpha = bestValue - 1;
+			}
+			b.placePiece(col, super.piece);
+			int value = alphaBeta(b, 0, alpha, Integer.MAX_VALUE, false);
+			b.undoMove(col);
+			if (aborted)
+				break;
+			if (value > bestValue || (value == bestValue && col < bestMove)) {
+				bestValue = value;
+				bestMove = col;
+			}
+		}
+		lastValue = bestValue;
 		return bestMove;
 	}
 
@@ -0,0 +1,554 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Exact scores of every position of a board from some number of pieces on, worked out backwards from the end of
+ * the game, so that StrongAI can look them up instead of searching.
+ *
+ * generate enumerates the positions a ply at a time, from the roots to the last ply, and then solves them the
+ * other way round: the score of each position is the best of minus the scores of the positions its moves lead
+ * to, which are already known since they are one ply later. Nothing is searched, so every position costs the
+ * same few lookups however far from the end of the game it is. A small board is solved from the empty board: a
+ * 4x4 board has some 67,000 positions once mirror images are merged, and a 5x5 board 25 million, which take
+ * under a second and about 20 seconds. Every position is held in memory at 8 bytes while they are solved, which
+ * rules out boards of 30 cells, with over 250 million positions by ply 20. The standard board has far too many
+ * positions even near the end to enumerate them all, so there the roots are the positions games actually reached
+ * with a given number of empty cells left (see main), and the tablebase holds every position that can follow
+ * them.
+ *
+ * Scores are Solver's: 0 for a draw, and for a win the number of cells the winner leaves empty, halved. Positions
+ * whose score follows from the position alone, because the side to move wins at once, loses whatever it does or
+ * cannot lose any more, are left out of the file and scored by probe on the fly, which leaves about half of the
+ * positions to store.
+ *
+ * A position is keyed by the pieces of the side to move plus all the pieces plus the bottom row, which is
+ * different for every position and, with a column of pieces to a group of bits, mirrors by reversing the groups.
+ * The smaller of a key and its mirror image is stored. Layout, all big-endian: the magic number, the format
+ * version, the board rows and columns, the fewest pieces a position covered has, the number of entries, the
+ * number of bits of a bucket number and the bytes of a key, as ints; then the index of the first entry of each
+ * bucket and one past the last bucket, as ints; then the entries, each a key in as few bytes as hold one
+ * followed by the score as a signed byte. The bucket of a key is the top bits of the key times a large odd
+ * number, and within a bucket entries are sorted by key, so a lookup reads one index entry and binary searches
+ * some 8 entries. A standard board entry is 8 bytes.
+ *
+ * The file is memory-mapped like OpeningBook, and probe only reads it, so one Tablebase can be shared by any
+ * number of threads.
+ *
+ * Run this class to generate a tablebase.
+ *
+ * @author Andrew
+ *
+ */
+public class Tablebase {
+
+	static final int MAGIC = 0x43345442; // "C4TB"
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 32;
+
+	/**
+	 * Where Game and Tournament look for a tablebase.
+	 */
+	public static final String DEFAULT_FILE = "connect4.tb";
+
+	/**
+	 * Returned by probe for a position the tablebase does not cover.
+	 */
+	public static final int UNKNOWN = Integer.MIN_VALUE;
+
+	/**
+	 * Positions enumerated at a time before they are sorted and merged into a ply.
+	 */
+	static final int CHUNK = 1 << 22;
+
+	ByteBuffer entries;
+	int rows;
+	int cols;
+	int minPieces;
+	int count;
+	int bucketBits;
+	int keyBytes;
+	int entryBytes;
+	int entriesOffset;
+
+	/**
+	 * The bitboard functions, set up for the size of the board.
+	 */
+	Bitboard bits;
+	int colBits;
+	int cells;
+	long[] keyColumns;
+
+	/**
+	 * A tablebase with no entries, for the key functions of a board size.
+	 */
+	Tablebase(int rows, int cols) {
+		setSize(rows, cols);
+	}
+
+	Tablebase(ByteBuffer buffer) throws IOException {
+		if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			throw new IOException("Not a tablebase");
+		}
+		setSize(buffer.getInt(8), buffer.getInt(12));
+		minPieces = buffer.getInt(16);
+		count = buffer.getInt(20);
+		bucketBits = buffer.getInt(24);
+		keyBytes = buffer.getInt(28);
+		entryBytes = keyBytes + 1;
+		entriesOffset = HEADER_BYTES + 4 * ((1 << bucketBits) + 1);
+		if ((long) count * entryBytes + entriesOffset != buffer.capacity()) {
+			throw new IOException("Tablebase is truncated");
+		}
+		entries = buffer;
+	}
+
+	private void setSize(int rows, int cols) {
+		this.rows = rows;
+		this.cols = cols;
+		bits = new Bitboard(rows, cols);
+		colBits = bits.colBits;
+		cells = rows * cols;
+		keyColumns = new long[cols];
+		for (int col = 0; col < cols; col++) {
+			keyColumns[col] = ((1L << colBits) - 1) << (col * colBits);
+		}
+	}
+
+	/**
+	 * Maps a tablebase into memory.
+	 *
+	 * @param file
+	 * @return the tablebase
+	 */
+	public static Tablebase open(File file) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			return new Tablebase(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * @param file
+	 * @return the tablebase, or null if the file does not exist or is not a tablebase
+	 */
+	public static Tablebase openIfPresent(File file) {
+		if (!file.isFile()) {
+			return null;
+		}
+		try {
+			return open(file);
+		} catch (IOException e) {
+			System.err.println("Ignoring tablebase " + file + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * @param b a position where nobody has won yet and the board is not full
+	 * @return the exact score of the position to the side to move, see the class comment, or UNKNOWN if the
+	 *         board is another size, has too few pieces, or is not one that can follow the roots
+	 */
+	public int probe(Board b) {
+		int moves = b.getPieceCount();
+		if (b.numRows != rows || b.numCols != cols || moves < minPieces) {
+			return UNKNOWN;
+		}
+		long mask = b.redMask | b.yellowMask;
+		long current = moves % 2 == 0 ? b.redMask : b.yellowMask;
+		int score = direct(current, mask, moves);
+		if (score != UNKNOWN) {
+			return score;
+		}
+		int index = find(canonicalKey(current, mask));
+		return index < 0 ? UNKNOWN : entries.get(entriesOffset + index * entryBytes + keyBytes);
+	}
+
+	/**
+	 * @return the score if it follows from the position without knowing what its moves lead to, else UNKNOWN
+	 */
+	int direct(long current, long mask, int moves) {
+		if ((bits.winningCells(current, mask) & bits.playable(mask)) != 0)
+			return (cells + 1 - moves) / 2;
+		if (bits.nonLosingMoves(current, mask) == 0)
+			return -(cells - moves) / 2; // the opponent wins with its next move
+		if (moves >= cells - 2)
+			return 0; // nobody can win any more
+		return UNKNOWN;
+	}
+
+	/**
+	 * @return the index of the entry with the key, or -1
+	 */
+	int find(long key) {
+		int bucket = bucket(key, bucketBits);
+		int low = entries.getInt(HEADER_BYTES + 4 * bucket);
+		int high = entries.getInt(HEADER_BYTES + 4 * bucket + 4) - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			long found = keyAt(mid);
+			if (found < key) {
+				low = mid + 1;
+			} else if (found > key) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	private long keyAt(int index) {
+		int at = entriesOffset + index * entryBytes;
+		long key = 0;
+		for (int i = 0; i < keyBytes; i++) {
+			key = key << 8 | (entries.get(at + i) & 0xFF);
+		}
+		return key;
+	}
+
+	static int bucket(long key, int bucketBits) {
+		return (int) ((key * 0x9E3779B97F4A7C15L) >>> (64 - bucketBits));
+	}
+
+	/**
+	 * @return the key of the position or of its mirror image, whichever is smaller
+	 */
+	long canonicalKey(long current, long mask) {
+		long key = current + mask + bits.bottomMask;
+		long mirror = 0;
+		for (int col = 0; col < cols; col++) {
+			mirror |= ((key & keyColumns[col]) >>> (col * colBits)) << ((cols - 1 - col) * colBits);
+		}
+		return Math.min(key, mirror);
+	}
+
+	/**
+	 * @return all the pieces of the position with the key
+	 */
+	long maskOf(long key) {
+		long mask = 0;
+		for (int col = 0; col < cols; col++) {
+			// the highest bit of each column marks the cell above its top piece
+			mask |= Long.highestOneBit(key & keyColumns[col]) - (1L << (col * colBits));
+		}
+		return mask;
+	}
+
+	/**
+	 * @return the number of positions stored, which leaves out those probe scores on the fly
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * @return the fewest pieces a position probe knows the score of has
+	 */
+	public int getMinPieces() {
+		return minPieces;
+	}
+
+	/**
+	 * Lists the positions the moves from a ply lead to, apart from those that end the game.
+	 *
+	 * @param ply   canonical keys of positions with moves pieces, sorted
+	 * @param moves
+	 * @return canonical keys of the positions with one more piece, sorted and without repeats
+	 */
+	long[] expand(long[] ply, int moves) {
+		long[] found = new long[0];
+		long[] chunk = new long[CHUNK];
+		int n = 0;
+		if (moves + 1 < cells) {
+			for (long key : ply) {
+				long mask = maskOf(key);
+				long current = key - mask - bits.bottomMask;
+				long wins = bits.winningCells(current, mask);
+				for (long next = bits.playable(mask) & ~wins; next != 0; next &= next - 1) {
+					if (n == chunk.length) {
+						found = merge(found, chunk, sortUnique(chunk, n));
+						n = 0;
+					}
+					chunk[n++] = canonicalKey(current ^ mask, mask | (next & -next));
+				}
+			}
+		}
+		return merge(found, chunk, sortUnique(chunk, n));
+	}
+
+	private static int sortUnique(long[] a, int n) {
+		Arrays.sort(a, 0, n);
+		int unique = 0;
+		for (int i = 0; i < n; i++) {
+			if (unique == 0 || a[i] != a[unique - 1]) {
+				a[unique++] = a[i];
+			}
+		}
+		return unique;
+	}
+
+	/**
+	 * @return the union of a and the first n keys of b, both sorted without repeats
+	 */
+	private static long[] merge(long[] a, long[] b, int n) {
+		long[] merged = new long[a.length + n];
+		int i = 0;
+		int j = 0;
+		int k = 0;
+		while (i < a.length || j < n) {
+			if (j == n || i < a.length && a[i] < b[j]) {
+				merged[k++] = a[i++];
+			} else {
+				if (i < a.length && a[i] == b[j]) {
+					i++;
+				}
+				merged[k++] = b[j++];
+			}
+		}
+		return Arrays.copyOf(merged, k);
+	}
+
+	/**
+	 * Scores a ply from the scores of the next one. The positions probe can score on the fly are dropped from
+	 * the ply on the way, since nothing needs to look them up.
+	 *
+	 * @param ply        canonical keys of positions with moves pieces, sorted; overwritten by those kept
+	 * @param nextPly    the positions kept of the ply after, sorted
+	 * @param nextScores their scores
+	 * @return the scores of the positions kept, which are the first that many of ply
+	 */
+	byte[] solve(long[] ply, int moves, long[] nextPly, byte[] nextScores) {
+		byte[] scores = new byte[ply.length];
+		int kept = 0;
+		for (long key : ply) {
+			long mask = maskOf(key);
+			long current = key - mask - bits.bottomMask;
+			if (direct(current, mask, moves) != UNKNOWN) {
+				continue;
+			}
+			int best = -cells;
+			for (long next = bits.nonLosingMoves(current, mask); next != 0; next &= next - 1) {
+				long after = mask | (next & -next);
+				int score = direct(current ^ mask, after, moves + 1);
+				if (score == UNKNOWN) {
+					int index = Arrays.binarySearch(nextPly, canonicalKey(current ^ mask, after));
+					if (index < 0) {
+						throw new IllegalStateException("Position missing from ply " + (moves + 1));
+					}
+					score = nextScores[index];
+				}
+				best = Math.max(best, -score);
+			}
+			ply[kept] = key;
+			scores[kept++] = (byte) best;
+		}
+		return Arrays.copyOf(scores, kept);
+	}
+
+	/**
+	 * Solves every position that can follow the roots and writes them as a tablebase.
+	 *
+	 * @param file  where to write the tablebase
+	 * @param roots positions all with the same number of pieces, the fewest the tablebase covers
+	 * @return the number of positions stored
+	 */
+	public static int generate(File file, int rows, int cols, List<Board> roots) throws IOException {
+		Tablebase size = new Tablebase(rows, cols);
+		int first = roots.isEmpty() ? 0 : roots.get(0).getPieceCount();
+		long[] keys = new long[roots.size()];
+		int n = 0;
+		for (Board b : roots) {
+			if (b.numRows != rows || b.numCols != cols || b.getPieceCount() != first) {
+				throw new IllegalArgumentException("Roots must be " + rows + "x" + cols + " with " + first + " pieces");
+			}
+			if (!b.lastMoveWon() && b.movesRemaining()) {
+				keys[n++] = size.canonicalKey(first % 2 == 0 ? b.redMask : b.yellowMask, b.redMask | b.yellowMask);
+			}
+		}
+		long[] ply = merge(new long[0], keys, sortUnique(keys, n));
+
+		// forwards, enumerating
+		List<long[]> plies = new ArrayList<long[]>();
+		while (ply.length > 0) {
+			long[] next = size.expand(ply, first + plies.size());
+			plies.add(ply);
+			ply = next;
+		}
+
+		// and backwards, solving
+		byte[][] scores = new byte[plies.size()][];
+		long total = 0;
+		long[] nextPly = new long[0];
+		byte[] nextScores = new byte[0];
+		for (int i = plies.size() - 1; i >= 0; i--) {
+			nextScores = size.solve(plies.get(i), first + i, nextPly, nextScores);
+			nextPly = Arrays.copyOf(plies.get(i), nextScores.length);
+			plies.set(i, nextPly);
+			scores[i] = nextScores;
+			total += nextScores.length;
+		}
+		write(file, size, first, plies, scores, total);
+		return (int) total;
+	}
+
+	/**
+	 * Lays the solved plies out in buckets and writes them to the file.
+	 */
+	private static void write(File file, Tablebase size, int minPieces, List<long[]> plies, byte[][] scores,
+			long total) throws IOException {
+		int keyBytes = (size.colBits * size.cols + 7) / 8;
+		int bucketBits = 1;
+		while (bucketBits < 30 && (1L << bucketBits) * 8 < total) {
+			bucketBits++;
+		}
+		long indexBytes = 4L * ((1 << bucketBits) + 1);
+		long length = HEADER_BYTES + indexBytes + total * (keyBytes + 1);
+		if (length > Integer.MAX_VALUE) {
+			throw new IllegalStateException("Tablebase too big to map: " + total + " positions");
+		}
+		int count = (int) total;
+
+		// counting sort by bucket, then by key within each bucket
+		int[] starts = new int[(1 << bucketBits) + 1];
+		for (long[] ply : plies) {
+			for (long key : ply) {
+				starts[bucket(key, bucketBits) + 1]++;
+			}
+		}
+		for (int i = 1; i < starts.length; i++) {
+			starts[i] += starts[i - 1];
+		}
+		long[] keys = new long[count];
+		byte[] values = new byte[count];
+		int[] fill = Arrays.copyOf(starts, starts.length - 1);
+		for (int p = 0; p < plies.size(); p++) {
+			long[] ply = plies.get(p);
+			for (int i = 0; i < ply.length; i++) {
+				int at = fill[bucket(ply[i], bucketBits)]++;
+				keys[at] = ply[i];
+				values[at] = scores[p][i];
+			}
+			plies.set(p, null);
+		}
+		for (int bucket = 0; bucket + 1 < starts.length; bucket++) {
+			// insertion sort, the buckets are a handful of entries
+			for (int i = starts[bucket] + 1; i < starts[bucket + 1]; i++) {
+				long key = keys[i];
+				byte value = values[i];
+				int j = i;
+				while (j > starts[bucket] && keys[j - 1] > key) {
+					keys[j] = keys[j - 1];
+					values[j] = values[j - 1];
+					j--;
+				}
+				keys[j] = key;
+				values[j] = value;
+			}
+		}
+
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+			out.putInt(MAGIC);
+			out.putInt(VERSION);
+			out.putInt(size.rows);
+			out.putInt(size.cols);
+			out.putInt(minPieces);
+			out.putInt(count);
+			out.putInt(bucketBits);
+			out.putInt(keyBytes);
+			for (int start : starts) {
+				out.putInt(start);
+			}
+			for (int i = 0; i < count; i++) {
+				for (int b = keyBytes - 1; b >= 0; b--) {
+					out.put((byte) (keys[i] >>> (8 * b)));
+				}
+				out.put(values[i]);
+			}
+			out.force();
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * @param records files of recorded games
+	 * @return the position of each standard Connect 4 game in the files after cells minus empties moves, for
+	 *         those that went on that long
+	 */
+	static List<Board> positionsOf(List<File> records, int empties) throws IOException {
+		List<Board> found = new ArrayList<Board>();
+		Board b = new Board(6, 7);
+		int moves = 6 * 7 - empties;
+		for (File file : records) {
+			GameRecordReader reader = new GameRecordReader(file);
+			try {
+				while (reader.next()) {
+					if (reader.getGame() != GameRecord.CONNECT_4 || reader.getRows() != 6 || reader.getCols() != 7
+							|| reader.getMoveCount() <= moves) {
+						continue;
+					}
+					b.clearBoard();
+					boolean legal = true;
+					for (int i = 0; i < moves && legal; i++) {
+						legal = b.placePiece(reader.getMove(i), i % 2 == 0 ? Piece.RED : Piece.YELLOW)
+								&& !b.lastMoveWon();
+					}
+					if (legal) {
+						found.add(new Board(b));
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Usage: java Tablebase rows cols [file] solves every position of a small board, into connect4-RxC.tb by
+	 * default.
+	 * <pre>
+	 *        java Tablebase late file empties records...
+	 * </pre>
+	 * solves every standard board position with at most the given number of empty cells that can follow a
+	 * position reached in the recorded games (see GameRecordWriter).
+	 */
+	public static void main(String[] args) throws IOException {
+		long start = System.nanoTime();
+		File file;
+		List<Board> roots;
+		if (args.length > 0 && args[0].equals("late")) {
+			file = new File(args[1]);
+			int empties = Integer.parseInt(args[2]);
+			List<File> records = new ArrayList<File>();
+			for (int i = 3; i < args.length; i++) {
+				records.add(new File(args[i]));
+			}
+			roots = positionsOf(records, empties);
+			System.out.println(roots.size() + " games reached " + empties + " empty cells");
+			generate(file, 6, 7, roots);
+		} else {
+			int rows = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+			int cols = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+			file = new File(args.length > 2 ? args[2] : "connect4-" + rows + "x" + cols + ".tb");
+			roots = new ArrayList<Board>();
+			roots.add(new Board(rows, cols));
+			generate(file, rows, cols, roots);
+		}
+		Tablebase tablebase = open(file);
+		System.out.println("Solved " + tablebase.size() + " positions from ply " + tablebase.getMinPieces() + " in "
+				+ (System.nanoTime() - start) / 1000000 + " ms");
+	}
+}
@@ -0,0 +1,393 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Plays many headless games between two kinds of Player across a pool of threads, to compare engines.
+ *
+ * The two sides take turns moving first, and every game starts with a few random moves so that deterministic
+ * engines do not just replay the same game. Each thread keeps its own statistics while playing and nothing is
+ * printed until all games are done.
+ *
+ * @author Andrew
+ *
+ */
+public class Tournament {
+
+	/**
+	 * Creates a fresh player for each game, so that players are never shared between threads.
+	 */
+	public interface PlayerFactory {
+		Player create(Piece p);
+	}
+
+	PlayerFactory first;
+	PlayerFactory second;
+	int threads;
+	int openingPlies = 2;
+	long seed = 1;
+	GameRecordWriter recorder;
+	String firstName;
+	String secondName;
+
+	/**
+	 * @param first   the first side, whose point of view the results are given from
+	 * @param second  the second side
+	 * @param threads number of games to play at the same time
+	 */
+	public Tournament(PlayerFactory first, PlayerFactory second, int threads) {
+		this.first = first;
+		this.second = second;
+		this.threads = threads;
+	}
+
+	/**
+	 * @param plies number of random moves made before the players take over
+	 */
+	public void setOpeningPlies(int plies) {
+		openingPlies = plies;
+	}
+
+	/**
+	 * @param seed seed for the random opening moves, games are reproducible for the same seed
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * @param recorder   where to append every game played, or null
+	 * @param firstName  name recorded for the first side
+	 * @param secondName name recorded for the second side
+	 */
+	public void setRecorder(GameRecordWriter recorder, String firstName, String secondName) {
+		this.recorder = recorder;
+		this.firstName = firstName;
+		this.secondName = secondName;
+	}
+
+	/**
+	 * Statistics of a tournament, or of the share of it played by one thread.
+	 */
+	public static class Result {
+		int games;
+		int wins;
+		int losses;
+		int draws;
+		int[] movesPerGame;
+		long[] firstLatencies;
+		int firstMoves;
+		long[] secondLatencies;
+		int secondMoves;
+		long wallNanos;
+
+		Result(int capacity) {
+			movesPerGame = new int[Math.max(capacity, 1)];
+			firstLatencies = new long[Math.max(capacity * 8, 16)];
+			secondLatencies = new long[Math.max(capacity * 8, 16)];
+		}
+
+		void addGame(int moves) {
+			if (games == movesPerGame.length) {
+				movesPerGame = Arrays.copyOf(movesPerGame, games * 2);
+			}
+			movesPerGame[games++] = moves;
+		}
+
+		void addFirstLatency(long nanos) {
+			if (firstMoves == firstLatencies.length) {
+				firstLatencies = Arrays.copyOf(firstLatencies, firstMoves * 2);
+			}
+			firstLatencies[firstMoves++] = nanos;
+		}
+
+		void addSecondLatency(long nanos) {
+			if (secondMoves == secondLatencies.length) {
+				secondLatencies = Arrays.copyOf(secondLatencies, secondMoves * 2);
+			}
+			secondLatencies[secondMoves++] = nanos;
+		}
+
+		void merge(Result other) {
+			wins += other.wins;
+			losses += other.losses;
+			draws += other.draws;
+			for (int i = 0; i < other.games; i++) {
+				addGame(other.movesPerGame[i]);
+			}
+			for (int i = 0; i < other.firstMoves; i++) {
+				addFirstLatency(other.firstLatencies[i]);
+			}
+			for (int i = 0; i < other.secondMoves; i++) {
+				addSecondLatency(other.secondLatencies[i]);
+			}
+		}
+
+		public int getGames() {
+			return games;
+		}
+
+		/**
+		 * @return games won by the first side
+		 */
+		public int getWins() {
+			return wins;
+		}
+
+		/**
+		 * @return games won by the second side
+		 */
+		public int getLosses() {
+			return losses;
+		}
+
+		public int getDraws() {
+			return draws;
+		}
+
+		public double getAverageMoves() {
+			long total = 0;
+			for (int i = 0; i < games; i++) {
+				total += movesPerGame[i];
+			}
+			return games == 0 ? 0 : (double) total / games;
+		}
+
+		/**
+		 * @param p percentile between 0 and 100
+		 * @return the time the first side took per move at that percentile, in nanoseconds
+		 */
+		public long getFirstLatency(double p) {
+			return percentile(firstLatencies, firstMoves, p);
+		}
+
+		/**
+		 * @param p percentile between 0 and 100
+		 * @return the time the second side took per move at that percentile, in nanoseconds
+		 */
+		public long getSecondLatency(double p) {
+			return percentile(secondLatencies, secondMoves, p);
+		}
+
+		private static long percentile(long[] values, int count, double p) {
+			if (count == 0) {
+				return 0;
+			}
+			long[] sorted = Arrays.copyOf(values, count);
+			Arrays.sort(sorted);
+			int index = (int) Math.ceil(p / 100 * count) - 1;
+			return sorted[Math.max(0, Math.min(count - 1, index))];
+		}
+
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append(games).append(" games in ").append(wallNanos / 1000000).append(" ms: ");
+			sb.append(wins).append(" wins, ").append(losses).append(" losses, ").append(draws).append(" draws\n");
+			sb.append(String.format("moves per game: %.1f average%n", getAverageMoves()));
+			sb.append(String.format("first side move latency (us):  p50 %d  p90 %d  p99 %d  max %d%n",
+					getFirstLatency(50) / 1000, getFirstLatency(90) / 1000, getFirstLatency(99) / 1000,
+					getFirstLatency(100) / 1000));
+			sb.append(String.format("second side move latency (us): p50 %d  p90 %d  p99 %d  max %d",
+					getSecondLatency(50) / 1000, getSecondLatency(90) / 1000, getSecondLatency(99) / 1000,
+					getSecondLatency(100) / 1000));
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * Plays the given number of games and waits for them all to finish.
+	 *
+	 * @param games
+	 * @return the combined results
+	 */
+	public Result play(final int games) {
+		final AtomicInteger next = new AtomicInteger();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		long start = System.nanoTime();
+		List<Future<Result>> running = new ArrayList<Future<Result>>();
+		for (int t = 0; t < threads; t++) {
+			running.add(pool.submit(new Callable<Result>() {
+				@Override
+				public Result call() {
+					Result result = new Result(games / threads + 1);
+					int game;
+					while ((game = next.getAndIncrement()) < games) {
+						playOne(game, result);
+					}
+					return result;
+				}
+			}));
+		}
+		Result total = new Result(games);
+		try {
+			for (Future<Result> f : running) {
+				total.merge(f.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Game failed", e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+		total.wallNanos = System.nanoTime() - start;
+		return total;
+	}
+
+	/**
+	 * Plays a single game and adds it to result. The first side moves first in even numbered games.
+	 */
+	void playOne(int game, Result result) {
+		boolean firstStarts = game % 2 == 0;
+		Player a = first.create(firstStarts ? Piece.RED : Piece.YELLOW);
+		Player b = second.create(firstStarts ? Piece.YELLOW : Piece.RED);
+		Game g = firstStarts ? new Game(a, b) : new Game(b, a);
+		if (recorder != null) {
+			g.setRecorder(recorder, firstStarts ? firstName : secondName, firstStarts ? secondName : firstName);
+		}
+
+		SplittableRandom random = new SplittableRandom(seed + game);
+		Piece turn = Piece.RED;
+		int opening = 0;
+		while (opening < openingPlies && g.board.movesRemaining()) {
+			int col = random.nextInt(g.board.numCols);
+			if (g.board.placePiece(col, turn)) {
+				if (g.board.lastMoveWon()) {
+					g.board.undoMove(col);
+					continue;
+				}
+				turn = turn == Piece.RED ? Piece.YELLOW : Piece.RED;
+				g.playerOneTurn = !g.playerOneTurn;
+				opening++;
+			}
+		}
+
+		long[] moveNanos = g.timingBuffer();
+		Player winner = g.playHeadlessGame(moveNanos);
+		int played = g.board.getPieceCount() - opening;
+		for (int i = 0; i < played; i++) {
+			// players alternate starting with RED, who is a when the first side starts
+			boolean byFirst = ((opening + i) % 2 == 0) == firstStarts;
+			if (byFirst) {
+				result.addFirstLatency(moveNanos[i]);
+			} else {
+				result.addSecondLatency(moveNanos[i]);
+			}
+		}
+		result.addGame(g.board.getPieceCount());
+		if (winner == null) {
+			result.draws++;
+		} else if (winner == a) {
+			result.wins++;
+		} else {
+			result.losses++;
+		}
+	}
+
+	/**
+	 * @param name one of minimax, alphabeta, table, book for table plus the opening book in connect4.book and
+	 *             the tablebase in connect4.tb if there is one, dumb for table scoring positions with
+	 *             evaluateBoardDumb, or mcts for MctsPlayer
+	 * @return a factory for a quiet StrongAI of that kind, or an MctsPlayer
+	 */
+	static PlayerFactory engine(final String name) {
+		if (name.equals("mcts")) {
+			return new PlayerFactory() {
+				@Override
+				public Player create(Piece p) {
+					return new MctsPlayer(p, 1 << 18);
+				}
+			};
+		}
+		if (!name.equals("minimax") && !name.equals("alphabeta") && !name.equals("table") && !name.equals("book")
+				&& !name.equals("dumb")) {
+			throw new IllegalArgumentException(
+					"Unknown engine " + name + ", expected minimax, alphabeta, table, book, dumb or mcts");
+		}
+		final OpeningBook book;
+		final Tablebase tablebase;
+		if (name.equals("book")) {
+			try {
+				book = OpeningBook.open(new java.io.File(OpeningBook.DEFAULT_FILE));
+			} catch (java.io.IOException e) {
+				throw new IllegalArgumentException("Cannot open " + OpeningBook.DEFAULT_FILE, e);
+			}
+			tablebase = Tablebase.openIfPresent(new java.io.File(Tablebase.DEFAULT_FILE));
+		} else {
+			book = null;
+			tablebase = null;
+		}
+		return new PlayerFactory() {
+			@Override
+			public Player create(Piece p) {
+				StrongAI ai;
+				if (name.equals("minimax")) {
+					ai = new StrongAI(p);
+				} else if (name.equals("alphabeta")) {
+					ai = new StrongAI(p, true);
+				} else {
+					ai = new StrongAI(p, 1 << 16);
+				}
+				ai.setOpeningBook(book);
+				ai.setTablebase(tablebase);
+				ai.setWindowHeuristic(!name.equals("dumb"));
+				ai.setVerbose(false);
+				return ai;
+			}
+		};
+	}
+
+	/**
+	 * @return a factory for the same players as factory, with listener added to each
+	 */
+	static PlayerFactory listenedTo(final PlayerFactory factory, final SearchListener listener) {
+		return new PlayerFactory() {
+			@Override
+			public Player create(Piece p) {
+				Player player = factory.create(p);
+				player.addSearchListener(listener);
+				return player;
+			}
+		};
+	}
+
+	/**
+	 * Usage: java Tournament [games] [threads] [first engine] [second engine] [metrics file] [records file]
+	 *
+	 * The search statistics of both sides are printed as JSON at the end, and also written to the metrics file
+	 * in the Prometheus text format if one is given other than -. Every game is appended to the records file if
+	 * one is given.
+	 */
+	public static void main(String[] args) throws java.io.IOException {
+		int games = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		String first = args.length > 2 ? args[2] : "table";
+		String second = args.length > 3 ? args[3] : "alphabeta";
+		SearchMetrics firstMetrics = new SearchMetrics("first:" + first);
+		SearchMetrics secondMetrics = new SearchMetrics("second:" + second);
+		Tournament t = new Tournament(listenedTo(engine(first), firstMetrics),
+				listenedTo(engine(second), secondMetrics), threads);
+		GameRecordWriter recorder = args.length > 5 ? new GameRecordWriter(new java.io.File(args[5])) : null;
+		t.setRecorder(recorder, first, second);
+		System.out.println(first + " vs " + second);
+		try {
+			System.out.println(t.play(games));
+		} finally {
+			if (recorder != null) {
+				recorder.close();
+			}
+		}
+		System.out.println(firstMetrics.toJson());
+		System.out.println(secondMetrics.toJson());
+		if (args.length > 4 && !args[4].equals("-")) {
+			SearchMetrics.writePrometheus(new java.io.File(args[4]), firstMetrics, secondMetrics);
+		}
+	}
+}
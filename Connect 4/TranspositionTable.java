@@ -0,0 +1,189 @@
+/**
+ * A fixed size table of previously searched positions, keyed by the Zobrist hash of a Board. StrongAI uses the
+ * canonical hash, so a position and its mirror image share an entry. Each entry holds
+ * the value found, the remaining depth it was searched to, whether the value is exact or only a bound, and the
+ * best column found.
+ *
+ * Entries live in buckets of two. The first slot keeps the deepest search seen for that bucket in the current
+ * search, the second slot is always overwritten, so the table never grows past its capacity but still keeps the
+ * expensive results around. Entries left over from earlier searches may always be replaced.
+ *
+ * Each entry is two longs, the data and the hash xor'd with the data. A lookup only succeeds when both halves
+ * agree, which also makes a half written entry harmless. This lets the threads of a parallel search share one
+ * table without locking; the counters may then miss the odd update.
+ *
+ * @author Andrew
+ *
+ */
+public class TranspositionTable {
+
+	/**
+	 * Bound types for the stored value.
+	 */
+	public static final int EXACT = 0;
+	public static final int LOWER_BOUND = 1;
+	public static final int UPPER_BOUND = 2;
+
+	/**
+	 * Returned by probe when the position is not in the table.
+	 */
+	public static final long MISS = 0;
+
+	private static final long VALID = 1L << 63;
+
+	long[] keys;
+	long[] data;
+	int bucketMask;
+	int generation;
+
+	long hits;
+	long misses;
+	long collisions;
+
+	/**
+	 * @param capacity the maximum number of entries, rounded down to a power of two
+	 */
+	public TranspositionTable(int capacity) {
+		if (capacity < 2) {
+			throw new IllegalArgumentException("Capacity must be at least 2: " + capacity);
+		}
+		int size = Integer.highestOneBit(capacity);
+		keys = new long[size];
+		data = new long[size];
+		bucketMask = size / 2 - 1;
+	}
+
+	/**
+	 * Marks the start of a new search. Entries from earlier searches become the first to be replaced.
+	 */
+	public void newSearch() {
+		generation = (generation + 1) & 0xff;
+	}
+
+	/**
+	 * Looks up a position.
+	 *
+	 * @param hash
+	 * @return the packed entry, to be read with value, draft, bound and move, or MISS if not found
+	 */
+	public long probe(long hash) {
+		int slot = ((int) hash & bucketMask) << 1;
+		long entry = data[slot];
+		if ((keys[slot] ^ entry) == hash && entry != MISS) {
+			hits++;
+			return entry;
+		}
+		entry = data[slot + 1];
+		if ((keys[slot + 1] ^ entry) == hash && entry != MISS) {
+			hits++;
+			return entry;
+		}
+		misses++;
+		return MISS;
+	}
+
+	/**
+	 * Stores the result of a search.
+	 *
+	 * @param hash
+	 * @param value
+	 * @param draft number of plies that were searched below the position
+	 * @param bound EXACT, LOWER_BOUND or UPPER_BOUND
+	 * @param move  the best column found, or -1 if there is none
+	 */
+	public void store(long hash, int value, int draft, int bound, int move) {
+		long entry = entry(value, draft, bound, move, generation);
+		int slot = ((int) hash & bucketMask) << 1;
+		long old = data[slot];
+		boolean sameKey = (keys[slot] ^ old) == hash;
+		if (sameKey || old == MISS || generation(old) != generation || draft(old) <= draft) {
+			if (!sameKey && old != MISS) {
+				// demote the old occupant rather than losing it
+				write(slot + 1, keys[slot] ^ old, old);
+			}
+			write(slot, hash, entry);
+		} else {
+			write(slot + 1, hash, entry);
+		}
+	}
+
+	private void write(int slot, long hash, long entry) {
+		long old = data[slot];
+		if (old != MISS && (keys[slot] ^ old) != hash) {
+			collisions++;
+		}
+		data[slot] = entry;
+		keys[slot] = hash ^ entry;
+	}
+
+	/**
+	 * Empties the table and resets its counters.
+	 */
+	public void clear() {
+		java.util.Arrays.fill(keys, 0);
+		java.util.Arrays.fill(data, 0);
+		hits = 0;
+		misses = 0;
+		collisions = 0;
+	}
+
+	/**
+	 * @return the fields of an entry packed into a long, which is never MISS
+	 */
+	static long entry(int value, int draft, int bound, int move, int generation) {
+		return (value & 0xffffffffL) | (long) (draft & 0xff) << 32 | (long) bound << 40
+				| (long) ((move + 1) & 0xff) << 42 | (long) generation << 50 | VALID;
+	}
+
+	public static int value(long entry) {
+		return (int) entry;
+	}
+
+	public static int draft(long entry) {
+		return (int) (entry >>> 32) & 0xff;
+	}
+
+	public static int bound(long entry) {
+		return (int) (entry >>> 40) & 0x3;
+	}
+
+	public static int move(long entry) {
+		return ((int) (entry >>> 42) & 0xff) - 1;
+	}
+
+	static int generation(long entry) {
+		return (int) (entry >>> 50) & 0xff;
+	}
+
+	/**
+	 * @return the maximum number of entries
+	 */
+	public int getCapacity() {
+		return data.length;
+	}
+
+	/**
+	 * @return the number of lookups that found their position
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of lookups that did not find their position
+	 */
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return the number of times a stored position was overwritten by a different one
+	 */
+	public long getCollisions() {
+		return collisions;
+	}
+
+	public String toString() {
+		return "capacity " + getCapacity() + ", hits " + hits + ", misses " + misses + ", collisions " + collisions;
+	}
+}
@@ -5,17 +5,29 @@ import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.Transparency;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.geom.Ellipse2D;
+import java.awt.image.BufferedImage;
 import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javax.swing.JButton;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 
 /**
  * A graphical tic tac toe application in JAVA displaying the use of the minimax algorithm. 
@@ -38,9 +50,9 @@ public class TicTacToe {
 	   		  {'-', '-', '-'} , 
 	   		  {'-', '-', '-'}};
 	/**
-	 * GUI components
+	 * GUI components. The frame is only created by launchGUI, so the AI can also be used headless.
 	 */
-	JFrame frame = new JFrame();
+	JFrame frame;
 	DrawingCanvas mainPanel = new DrawingCanvas();
 	JButton resetButton = new JButton("Reset");
 	JPanel rightPanel = new JPanel();
@@ -48,19 +60,210 @@ public class TicTacToe {
 	
 	int WINDOW_WIDTH = 1000;
 	int SQUARE_SIZE = 200;
+
+	/**
+	 * Debugging output goes here at FINE, and search statistics at INFO. Messages are only built when their level
+	 * is enabled.
+	 */
+	static final Logger LOG = Logger.getLogger(TicTacToe.class.getName());
+
+	/**
+	 * Steps along a row, a column, and the two diagonals, as {row, col}.
+	 */
+	static final int[][] DIRECTIONS = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+
+	/**
+	 * Number of pieces in a row needed to win. The whole row on the classic board.
+	 */
+	int winLength = 3;
+
+	/**
+	 * Searches the boards other than the classic 3 by 3, which are too big for minimax.
+	 */
+	TicTacToeEngine engine;
+
+	/**
+	 * Number of positions visited by minimax since this was last reset.
+	 */
+	long nodes;
+
+	/**
+	 * The rotations and reflections of the board, worked out on first use by duplicateMoves.
+	 */
+	int[][] symmetries;
+
+	/**
+	 * Runs the computer's searches in the GUI, one at a time, so that the Swing event thread never waits for one.
+	 * Created on first use.
+	 */
+	ExecutorService searcher;
+	/**
+	 * The computer's search under way, or null when it is the human's turn. Only touched on the event thread.
+	 */
+	Future<?> thinking;
+	/**
+	 * Counts the searches started and the resets, so that a search whose result arrives after a reset can tell
+	 * it is no longer wanted.
+	 */
+	int searchId;
+
+	/**
+	 * Where finished games are recorded, or null. The human, O, moves first in every record.
+	 */
+	GameRecordWriter recorder;
+	GameRecord record = new GameRecord();
+
+	/**
+	 * When the human was last given the move, as System.nanoTime.
+	 */
+	long lastMoveNanos;
+
+	/**
+	 * The classic 3 by 3 game.
+	 */
+	public TicTacToe() {
+	}
+
+	/**
+	 * A bigger board, such as 4 by 4, 5 by 5 with 4 in a row, or 15 by 15 with 5 in a row. The AI looks ahead
+	 * fewer moves the bigger the board.
+	 * @param size width and height of the board
+	 * @param winLength number in a row needed to win
+	 */
+	public TicTacToe(int size, int winLength) {
+		TicTacToeBoard.checkSize(size, winLength);
+		board = new char[size][size];
+		for(char[] row : board) {
+			java.util.Arrays.fill(row, '-');
+		}
+		this.winLength = winLength;
+		SQUARE_SIZE = 600 / size;
+		int depth = size <= 4 ? 8 : size <= 5 ? 6 : 4;
+		if(!isClassic()) {
+			engine = new TicTacToeEngine(depth);
+		}
+	}
+
+	/**
+	 * @return true for the 3 by 3 board with 3 in a row
+	 */
+	boolean isClassic() {
+		return board.length == 3 && winLength == 3;
+	}
 	
 	/**
-	 * Finds the best possible computer move given the state of the board.
-	 * @return an int[] of length 2 given in the form {row, col} representing the coordinates of the best move
+	 * Records every game played from now on. Each game is written out as soon as it ends, or when the board is
+	 * reset part way through.
+	 * @param recorder where to append the games, or null to stop recording
+	 */
+	public void setRecorder(GameRecordWriter recorder) {
+		this.recorder = recorder;
+		startRecord();
+	}
+
+	private void startRecord() {
+		record.start(GameRecord.TIC_TAC_TOE, board.length, board.length, winLength, System.currentTimeMillis());
+		record.setPlayers("human", isClassic() ? "TicTacToeTable" : "TicTacToeEngine");
+		lastMoveNanos = System.nanoTime();
+	}
+
+	/**
+	 * Appends the game so far to the recorder, unless it is empty, and starts the record of the next one.
+	 */
+	void recordGame() {
+		if(recorder == null) {
+			return;
+		}
+		if(record.getMoveCount() > 0) {
+			int val = evaluateBoard();
+			if(val == -10) {
+				record.setResult(GameRecord.FIRST_WON);
+			} else if(val == 10) {
+				record.setResult(GameRecord.SECOND_WON);
+			} else {
+				record.setResult(isEndState() ? GameRecord.DRAW : GameRecord.UNFINISHED);
+			}
+			try {
+				recorder.write(record);
+				recorder.flush();
+			} catch (java.io.IOException e) {
+				LOG.warning("Could not record the game: " + e.getMessage());
+			}
+		}
+		startRecord();
+	}
+	
+	/**
+	 * Finds the best possible computer move given the state of the board. Every position of the classic board
+	 * has been solved ahead of time, so this is a lookup in TicTacToeTable. Bigger boards are searched by
+	 * TicTacToeEngine.
+	 * @return an int[] of length 2 given in the form {row, col} representing the coordinates of the best move, or
+	 * null if the board is full
 	 */
 	public int[] findBestMove() {
+		return findBestMove(board);
+	}
+
+	/**
+	 * Finds the best computer move in the given position rather than the one on the board, such as a copy of it
+	 * searched in the background.
+	 * @param position the squares, as in board
+	 * @return the move as {row, col}, or null if the board is full or the search was cut short by interrupting its
+	 * thread
+	 */
+	int[] findBestMove(char[][] position) {
+		if(isClassic()) {
+			int[] move = TicTacToeTable.getInstance().bestMove(TicTacToeTable.encode(position));
+			// the table answers {0, 0} for a full board
+			return position[move[0]][move[1]] == '-' ? move : null;
+		}
+		int square = engine.bestMove(new TicTacToeBoard(position, winLength), TicTacToeBoard.X);
+		if(engine.aborted || square == -1) {
+			return null;
+		}
+		return new int[] { square / position.length, square % position.length };
+	}
+
+	/**
+	 * Finds the computer move with findBestMove, and reports how much searching it took on the bigger boards.
+	 * @return the move as {row, col}, or null if the board is full
+	 */
+	int[] computerMove() {
+		return computerMove(board);
+	}
+
+	/**
+	 * @param position the squares, as in board
+	 * @return the move as {row, col}, or null if the board is full or the search was cut short by interrupting its
+	 * thread
+	 */
+	int[] computerMove(char[][] position) {
+		if(engine == null) {
+			return findBestMove(position);
+		}
+		engine.resetStats();
+		long start = System.nanoTime();
+		int[] move = findBestMove(position);
+		if(LOG.isLoggable(Level.INFO)) {
+			LOG.info((engine.aborted ? "Stopped after " : "Searched ") + engine.statsToString(System.nanoTime() - start));
+		}
+		return move;
+	}
+
+	/**
+	 * Finds the best possible computer move by running minimax on the current board. Gives the same move as
+	 * findBestMove, which is how the table was built.
+	 * @return an int[] of length 2 given in the form {row, col} representing the coordinates of the best move
+	 */
+	public int[] searchBestMove() {
 		int bestValue = -1000;
 		int[] bestMove = new int[2];
 		//checks the value of all possible moves and chooses the resulting board with the highest value
 		//does not actually make any moves
+		boolean[] duplicate = duplicateMoves();
 		for(int i =0; i < board.length; i++) {
 			for(int j = 0;  j < board.length; j++) {
-				if(board[i][j] == '-') {
+				if(board[i][j] == '-' && !duplicate[i * board.length + j]) {
 					board[i][j] = 'X';
 					int value = minimax(0, false);//finds the value of a given move
 					board[i][j] = '-';
@@ -76,6 +279,60 @@ public class TicTacToe {
 		return bestMove;
 	}
 	
+	/**
+	 * Finds the moves that are a rotation or reflection of a move on an earlier square, for the symmetries that
+	 * leave the current board unchanged. Such a move has the same value as the earlier one, and since ties go to
+	 * the earlier square, it never needs searching.
+	 * @return for each square, row by row, whether a move there can be skipped
+	 */
+	boolean[] duplicateMoves() {
+		int n = board.length;
+		boolean[] duplicate = new boolean[n * n];
+		if(symmetries == null) {
+			symmetries = squareSymmetries(n);
+		}
+		for(int[] symmetry : symmetries) {
+			boolean fixed = true;
+			for(int cell = 0; cell < n * n && fixed; cell++) {
+				int image = symmetry[cell];
+				fixed = board[cell / n][cell % n] == board[image / n][image % n];
+			}
+			if(fixed) {
+				for(int cell = 0; cell < n * n; cell++) {
+					if(symmetry[cell] < cell) {
+						duplicate[cell] = true;
+					}
+				}
+			}
+		}
+		return duplicate;
+	}
+	
+	/**
+	 * The 8 symmetries of a square board: the rotations and the reflections.
+	 * @param n the width of the board
+	 * @return for each symmetry, the square each square is moved to, with squares numbered row by row
+	 */
+	static int[][] squareSymmetries(int n) {
+		int[][] symmetries = new int[8][n * n];
+		for(int i = 0; i < n; i++) {
+			for(int j = 0; j < n; j++) {
+				int cell = i * n + j;
+				int ri = n - 1 - i;
+				int rj = n - 1 - j;
+				symmetries[0][cell] = cell;
+				symmetries[1][cell] = j * n + ri;
+				symmetries[2][cell] = ri * n + rj;
+				symmetries[3][cell] = rj * n + i;
+				symmetries[4][cell] = ri * n + j;
+				symmetries[5][cell] = i * n + rj;
+				symmetries[6][cell] = j * n + i;
+				symmetries[7][cell] = rj * n + ri;
+			}
+		}
+		return symmetries;
+	}
+	
 	/**
 	 * The actual recursive minimax function, which is used to evaluate the current state of the board based
 	 * on anticipation of future moves by an assumed-perfect player.
@@ -84,6 +341,7 @@ public class TicTacToe {
 	 * @return the value
 	 */
 	public int minimax(int depth, boolean isMaximizingPlayer) {
+		nodes++;
 		int score = evaluateBoard();
 		//cases in which a player has won or lost.
 		if(score == 10) return 10 - depth;
@@ -134,69 +392,26 @@ public class TicTacToe {
 	 * @return the value of the board to be used in the minimax algorithm
 	 */
 	public int evaluateBoard() {
-		//check horizontals for win
-		boolean found = false;
-		char winningChar = '-';
-		for(int i = 0; i < board.length && !found; i++) {
-			boolean stillInARow = true;
-			int j = 0;
-			while( j < board.length - 1 && stillInARow) {
-				stillInARow = board[i][j] == board[i][++j];
-			}
-			if(stillInARow) {
-				winningChar = board[i][j];
-				if(winningChar != '-') {
-					found = true;
-				}
-			}
-		}
-		
-		//check Verticals for win
-		if(!found) {
-			for(int i = 0; i < board.length && !found; i++) {
-				boolean stillInARow = true;
-				int j = 0;
-				while( j < board.length - 1 && stillInARow) {
-					stillInARow = board[j][i] == board[++j][i];
-				}
-				if(stillInARow) {
-					winningChar = board[j][i];
-					if(winningChar != '-') {
-						found = true;
+		//checks every line of winLength squares: horizontals, verticals, then both diagonals
+		for(int[] d : DIRECTIONS) {
+			for(int i = 0; i < board.length; i++) {
+				for(int j = 0; j < board.length; j++) {
+					char winningChar = board[i][j];
+					int endRow = i + d[0] * (winLength - 1);
+					int endCol = j + d[1] * (winLength - 1);
+					if(winningChar == '-' || endRow >= board.length || endCol < 0 || endCol >= board.length) {
+						continue;
+					}
+					boolean stillInARow = true;
+					for(int k = 1; k < winLength && stillInARow; k++) {
+						stillInARow = board[i + d[0] * k][j + d[1] * k] == winningChar;
+					}
+					if(stillInARow) {
+						return winningChar == 'X' ? 10 : -10;
 					}
 				}
 			}
 		}
-		
-		//check diagonals for win
-		if(!found) {
-			boolean stillInaRow = true;
-			int i;
-			for(i =0; i < board.length - 1 && stillInaRow; i++) {
-				
-				stillInaRow = board[i][i] == board[i+1][i+1];
-			}
-			if(stillInaRow) {
-				
-				winningChar = board[i][i];
-			}
-			if(winningChar == '-') {
-				i = board.length - 1;
-				stillInaRow = true;
-				int j;
-				for(j = 0; j < board.length -1 && stillInaRow; j++) {
-					stillInaRow = board[i][j] == board[i - 1][j + 1];
-					i--;
-				}
-				if(stillInaRow) {
-					winningChar = board[i][j];
-				}
-			}
-			
-		}
-		
-		if(winningChar == 'X') return 10;
-		if(winningChar == 'O') return -10;
 		return 0;
 	}
 	
@@ -216,16 +431,16 @@ public class TicTacToe {
 	}
 	
 	private static String boardToString(char[][] board) {
-		String str = "";
+		StringBuilder str = new StringBuilder(board.length * board.length * 2);
 		for(int i = 0; i < board.length; i++) {
 			for(int j = 0; j < board.length; j++) {
-				str += board[i][j] + " ";
+				str.append(board[i][j]).append(' ');
 			}
 			if(i != board.length - 1)
-			str += "\n";
+			str.append('\n');
 		}
 		
-		return str;
+		return str.toString();
 	}
 	public static String moveToString(int[] move) {
 		return "(" + move[0] + "," + move[1] + ")";
@@ -235,6 +450,7 @@ public class TicTacToe {
 	 * Runs the GUI application
 	 */
 	public void launchGUI() {
+		frame = new JFrame();
 		frame.setSize(1000, 1000);
 		frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 		frame.setTitle("Tic Tac Toe");
@@ -245,8 +461,8 @@ public class TicTacToe {
 		JPanel titlePanel = new JPanel();
 		titlePanel.add(title, BorderLayout.CENTER);
 		
-		rightPanel.setPreferredSize(new Dimension((WINDOW_WIDTH - SQUARE_SIZE * 3 -30)/2,100));
-		leftPanel.setPreferredSize(new Dimension((WINDOW_WIDTH - SQUARE_SIZE * 3 -30)/2,100));
+		rightPanel.setPreferredSize(new Dimension((WINDOW_WIDTH - SQUARE_SIZE * board.length -30)/2,100));
+		leftPanel.setPreferredSize(new Dimension((WINDOW_WIDTH - SQUARE_SIZE * board.length -30)/2,100));
 		
 		frame.getContentPane().add(titlePanel, BorderLayout.NORTH);
 		
@@ -270,7 +486,7 @@ public class TicTacToe {
 			@Override
 			public void mouseClicked(MouseEvent arg0) {
 				 {
-					System.out.println("Suc");
+					LOG.fine("Suc");
 					makeMove(xyCoordsToBoardCoords(arg0.getX(), arg0.getY()));
 				}
 			}
@@ -300,12 +516,18 @@ public class TicTacToe {
 
 			@Override
 			public void actionPerformed(ActionEvent arg0) {
+				searchId++;
+				if(thinking != null) {
+					thinking.cancel(true);
+					thinking = null;
+				}
+				recordGame();
 				for(int i = 0; i < board.length; i++) {
 					for(int j = 0; j < board.length; j++) {
 						board[i][j] = '-';
 					}
 				}
-				frame.repaint();
+				mainPanel.repaint();
 				mainPanel.requestFocusInWindow();
 				
 			}
@@ -314,35 +536,115 @@ public class TicTacToe {
 	}
 	
 	/**
-	 * Executes a player move and the following computer move.
+	 * Executes a player move, and starts the computer's search for its reply in the background. Clicks are
+	 * ignored until the reply has been played.
 	 * @param move
 	 */
 	public void makeMove(int[] move) {
-		System.out.println("Making Move: " + moveToString(move));
+		if(thinking != null) {
+			LOG.fine("Ignoring a move while the computer thinks");
+			return;
+		}
+		if(LOG.isLoggable(Level.FINE)) {
+			LOG.fine("Making Move: " + moveToString(move));
+		}
 		int val = evaluateBoard();
 
 		if(board[move[0]][move[1]] == '-' && val != 10 && val != -10) {
 			board[move[0]][move[1]] = 'O';
-			System.out.println("Success");
+			LOG.fine("Success");
+			final long start = System.nanoTime();
+			if(recorder != null) {
+				record.addMove(move[0] * board.length + move[1], start - lastMoveNanos);
+			}
 			val =evaluateBoard();
 			if(!isEndState() && val != 10 && val != -10) {
-			move = findBestMove();
-			board[move[0]][move[1]] = 'X';
-			System.out.println(boardToString(board));
-			
+				startSearch(start);
+			} else {
+				recordGame();
 			}
-			frame.repaint();
+			repaintSquare(move);
 			
 		}
 		
 	}
+
+	/**
+	 * Searches a copy of the board on the searcher thread, then plays the move found on the event thread unless
+	 * the board was reset in the meantime. If the search fails the human gets the move back.
+	 * @param start when the search started, as System.nanoTime
+	 */
+	private void startSearch(final long start) {
+		if(searcher == null) {
+			searcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "TicTacToe AI");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		final int id = ++searchId;
+		final char[][] position = new char[board.length][];
+		for(int i = 0; i < board.length; i++) {
+			position[i] = board[i].clone();
+		}
+		thinking = searcher.submit(new Runnable() {
+			@Override
+			public void run() {
+				int[] found = null;
+				try {
+					found = computerMove(position);
+				} catch (RuntimeException e) {
+					LOG.log(Level.SEVERE, "Search failed", e);
+				}
+				final int[] reply = found;
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						if(id != searchId) {
+							return; // the board was reset
+						}
+						if(reply == null) {
+							thinking = null;
+						} else {
+							playReply(reply, start);
+						}
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Plays the computer's move found by a search.
+	 */
+	private void playReply(int[] move, long start) {
+		thinking = null;
+		board[move[0]][move[1]] = 'X';
+		if(recorder != null) {
+			lastMoveNanos = System.nanoTime();
+			record.addMove(move[0] * board.length + move[1], lastMoveNanos - start);
+		}
+		if(LOG.isLoggable(Level.FINE)) {
+			LOG.fine(boardToString(board));
+		}
+		int val = evaluateBoard();
+		if(isEndState() || val == 10 || val == -10) {
+			recordGame();
+		}
+		repaintSquare(move);
+	}
 	
 	//converts the xy coordinates of a click into the coordinates on the board.
 	private int[] xyCoordsToBoardCoords(int x, int y) {
 		int[] result = new int[2];
 		result[0] = y / SQUARE_SIZE;
 		result[1] = x / SQUARE_SIZE;
-		System.out.println("Board spot selected: " + moveToString(result));
+		if(LOG.isLoggable(Level.FINE)) {
+			LOG.fine("Board spot selected: " + moveToString(result));
+		}
 		return result;
 	}
 	
@@ -353,34 +655,123 @@ public class TicTacToe {
 	 *
 	 */
 	private class DrawingCanvas extends JPanel {
+		/**
+		 * The empty grid and a sprite of a square holding each piece, grid lines and all, drawn once for the
+		 * current square size. All of them are opaque, so drawing them is a plain copy. A repaint copies the part
+		 * of the grid inside the clip and the sprites of the taken squares it touches, so repainting the one
+		 * square a move changed costs a couple of small image copies and creates nothing.
+		 */
+		Image grid;
+		Image xSprite;
+		Image oSprite;
+		int imageSquareSize;
+		int imageBoardSize;
+
 		public void paintComponent(Graphics g) {
 			int squareSize = SQUARE_SIZE;
-			int offset = 20;
-			Graphics2D g2d =(Graphics2D) g;
-			int x = 0;
-			int y = 0;
-			for(int i=0; i < board.length; i++) {
-				for(int j = 0; j < board.length; j++) {
-					g2d.setColor(Color.BLACK);
-					g2d.setStroke(new BasicStroke(1));
-					g2d.drawRect(x, y, squareSize, squareSize);
-					g2d.setStroke(new BasicStroke(10));
-					if(board[j][i] == 'X' ) {
-						System.out.println("X");
-						g2d.setColor(Color.RED);
-						g2d.drawLine(x + offset, y + offset, x + squareSize - offset, y + squareSize - offset);
-						g2d.drawLine(x + offset, y + squareSize - offset, x + squareSize - offset, y + offset);
+			int n = board.length;
+			Rectangle clip = g.getClipBounds();
+			if(clip == null || clip.x + clip.width > n * squareSize + 1 || clip.y + clip.height > n * squareSize + 1) {
+				super.paintComponent(g); // clears what is outside the grid
+			}
+			if(grid == null || imageSquareSize != squareSize || imageBoardSize != n) {
+				createImages(squareSize, n);
+			}
+			int firstRow = 0;
+			int lastRow = n - 1;
+			int firstCol = 0;
+			int lastCol = n - 1;
+			if(clip != null) {
+				firstRow = Math.max(0, clip.y / squareSize);
+				lastRow = Math.min(n - 1, (clip.y + clip.height - 1) / squareSize);
+				firstCol = Math.max(0, clip.x / squareSize);
+				lastCol = Math.min(n - 1, (clip.x + clip.width - 1) / squareSize);
+			}
+			// the grid is only needed under empty squares, and the repaint of a move has none
+			boolean empty = false;
+			for(int i = firstRow; i <= lastRow && !empty; i++) {
+				for(int j = firstCol; j <= lastCol && !empty; j++) {
+					empty = board[i][j] != 'X' && board[i][j] != 'O';
+				}
+			}
+			if(empty) {
+				g.drawImage(grid, 0, 0, null);
+			}
+			for(int i = firstRow; i <= lastRow; i++) {
+				for(int j = firstCol; j <= lastCol; j++) {
+					if(board[i][j] == 'X') {
+						g.drawImage(xSprite, j * squareSize, i * squareSize, null);
 					}
-					else if(board[j][i] == 'O') {
-						g2d.setColor(Color.BLUE);
-						 g2d.draw(new Ellipse2D.Double(x + offset, y+ offset, squareSize - offset*2, squareSize - offset*2));
+					else if(board[i][j] == 'O') {
+						g.drawImage(oSprite, j * squareSize, i * squareSize, null);
 					}
-					y+= squareSize;
 				}
-				x += squareSize;
-				y= 0;
 			}
 		}
+
+		private void createImages(int squareSize, int n) {
+			int offset = Math.min(20, squareSize / 5);
+			grid = createSquareImage(n * squareSize + 1, Transparency.OPAQUE);
+			Graphics2D g2d = (Graphics2D) grid.getGraphics();
+			for(int i = 0; i < n; i++) {
+				for(int j = 0; j < n; j++) {
+					drawSquare(g2d, j * squareSize, i * squareSize, squareSize);
+				}
+			}
+			g2d.dispose();
+
+			xSprite = createSquareImage(squareSize + 1, Transparency.OPAQUE);
+			g2d = (Graphics2D) xSprite.getGraphics();
+			drawSquare(g2d, 0, 0, squareSize);
+			g2d.setColor(Color.RED);
+			g2d.setStroke(new BasicStroke(10));
+			g2d.drawLine(offset, offset, squareSize - offset, squareSize - offset);
+			g2d.drawLine(offset, squareSize - offset, squareSize - offset, offset);
+			g2d.dispose();
+
+			oSprite = createSquareImage(squareSize + 1, Transparency.OPAQUE);
+			g2d = (Graphics2D) oSprite.getGraphics();
+			drawSquare(g2d, 0, 0, squareSize);
+			g2d.setColor(Color.BLUE);
+			g2d.setStroke(new BasicStroke(10));
+			g2d.draw(new Ellipse2D.Double(offset, offset, squareSize - offset * 2, squareSize - offset * 2));
+			g2d.dispose();
+
+			imageSquareSize = squareSize;
+			imageBoardSize = n;
+		}
+
+		/**
+		 * Draws an empty square with its outline.
+		 */
+		private void drawSquare(Graphics2D g2d, int x, int y, int squareSize) {
+			g2d.setColor(getBackground());
+			g2d.fillRect(x, y, squareSize + 1, squareSize + 1);
+			g2d.setColor(Color.BLACK);
+			g2d.setStroke(new BasicStroke(1));
+			g2d.drawRect(x, y, squareSize, squareSize);
+		}
+
+		/**
+		 * @return a square image in the screen's own format when there is a screen, so that copying it is a
+		 *         plain blit
+		 */
+		private Image createSquareImage(int size, int transparency) {
+			GraphicsConfiguration config = getGraphicsConfiguration();
+			if(config != null) {
+				return config.createCompatibleImage(size, size, transparency);
+			}
+			return new BufferedImage(size, size, transparency == Transparency.OPAQUE ? BufferedImage.TYPE_INT_RGB
+					: BufferedImage.TYPE_INT_ARGB);
+		}
+	}
+
+	/**
+	 * Repaints the one square of a move, rather than the whole window.
+	 * @param move {row, col}
+	 */
+	void repaintSquare(int[] move) {
+		mainPanel.repaint(move[1] * SQUARE_SIZE, move[0] * SQUARE_SIZE, SQUARE_SIZE + 1, SQUARE_SIZE + 1);
 	}
 	/**
 	 * To be called in main, runs the game in console mode.
@@ -389,11 +780,11 @@ public class TicTacToe {
 		
 		System.out.println(boardToString(board));
 		System.out.println("You are O's, AI is X's");
+		Scanner sc = new Scanner(System.in);
 		
 		while(true) {
 			
 			System.out.println("----------------------------------");
-			Scanner sc = new Scanner(System.in);
 			System.out.println("Your Move:");
 			System.out.println("Enter row:");
 			int row = Integer.parseInt(sc.nextLine());
@@ -411,7 +802,7 @@ public class TicTacToe {
 			
 			
 			
-			int[] move = findBestMove();
+			int[] move = computerMove();
 			System.out.println("Computer Moved!");
 			board[move[0]][move[1]] = 'X';
 			System.out.println(boardToString(board));
@@ -425,11 +816,17 @@ public class TicTacToe {
 		}
 	/**
 	 * A Main method showing the game being launched as a graphical display.
-	 * @param args none needed
+	 * @param args optionally the board size and the number in a row needed to win, 3 and 3 by default, and a file
+	 * to append the games played to
 	 */
-	public static void main(String[] args) {
+	public static void main(String[] args) throws java.io.IOException {
 		
-		TicTacToe t = new TicTacToe();
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+		int winLength = args.length > 1 ? Integer.parseInt(args[1]) : size;
+		TicTacToe t = new TicTacToe(size, winLength);
+		if(args.length > 2) {
+			t.setRecorder(new GameRecordWriter(new java.io.File(args[2])));
+		}
 		t.launchGUI();
 	}
 
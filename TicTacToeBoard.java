@@ -0,0 +1,241 @@
+/**
+ * A tic tac toe board of any size where a player needs winLength in a row to win, for the larger variants such as
+ * 4 by 4, 5 by 5 with 4 in a row, or 15 by 15 with 5 in a row.
+ *
+ * Squares are numbered row by row, and each color is a bitset of the squares it holds. Every line of winLength
+ * squares on the board (a window) keeps a count of the X and O pieces in it, updated by play and undo. A move wins
+ * when it fills one of its windows, so the win check only looks at the windows through the square just played,
+ * and the heuristic value of the board is kept up to date the same way.
+ * @author Andrew
+ *
+ */
+public class TicTacToeBoard {
+
+	static final int EMPTY = 0;
+	static final int X = 1;
+	static final int O = 2;
+
+	int size;
+	int winLength;
+	long[] xBits;
+	long[] oBits;
+	/**
+	 * Squares played so far, in order.
+	 */
+	int[] moves;
+	int moveCount;
+	boolean lastMoveWon;
+
+	/**
+	 * The squares of every window, and the windows through every square.
+	 */
+	int[][] windows;
+	int[][] squareWindows;
+	int[] xCount;
+	int[] oCount;
+	/**
+	 * Value of each window holding count pieces of only one color.
+	 */
+	long[] weights;
+	/**
+	 * Sum of the values of the windows held only by X, minus those held only by O.
+	 */
+	long score;
+
+	/**
+	 * Create an empty board.
+	 * @param size width and height of the board
+	 * @param winLength number in a row needed to win
+	 */
+	public TicTacToeBoard(int size, int winLength) {
+		checkSize(size, winLength);
+		this.size = size;
+		this.winLength = winLength;
+		xBits = new long[(size * size + 63) / 64];
+		oBits = new long[xBits.length];
+		moves = new int[size * size];
+		findWindows();
+		xCount = new int[windows.length];
+		oCount = new int[windows.length];
+		weights = new long[winLength + 1];
+		for(int count = 1; count <= winLength; count++) {
+			// each extra piece in a window multiplies its value by 16, so it outweighs up to 15 windows with one
+			// piece less. On the big boards, with hundreds of windows, many weaker ones can still add up to more
+			weights[count] = 1L << (4 * (count - 1));
+		}
+	}
+
+	/**
+	 * @param size
+	 * @param winLength
+	 * @throws IllegalArgumentException if there is no game of that size
+	 */
+	static void checkSize(int size, int winLength) {
+		if(size < 1 || winLength < 1 || winLength > size || winLength > 10) {
+			throw new IllegalArgumentException("Cannot play " + winLength + " in a row on a " + size + " by " + size
+					+ " board");
+		}
+	}
+
+	/**
+	 * Create a board from the 'X', 'O' and '-' squares of a square char array, as used by TicTacToe.
+	 * @param board
+	 * @param winLength
+	 */
+	public TicTacToeBoard(char[][] board, int winLength) {
+		this(board.length, winLength);
+		for(int i = 0; i < size; i++) {
+			for(int j = 0; j < size; j++) {
+				if(board[i][j] == 'X') {
+					play(i * size + j, X);
+				} else if(board[i][j] == 'O') {
+					play(i * size + j, O);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Lists every line of winLength squares: along the rows, then the columns, then both diagonals.
+	 */
+	private void findWindows() {
+		int[][] directions = { { 0, 1 }, { 1, 0 }, { 1, 1 }, { 1, -1 } };
+		int[][] found = new int[4 * size * size][];
+		int count = 0;
+		int[] perSquare = new int[size * size];
+		for(int[] d : directions) {
+			for(int i = 0; i < size; i++) {
+				for(int j = 0; j < size; j++) {
+					int endRow = i + d[0] * (winLength - 1);
+					int endCol = j + d[1] * (winLength - 1);
+					if(endRow < size && endCol >= 0 && endCol < size) {
+						int[] window = new int[winLength];
+						for(int k = 0; k < winLength; k++) {
+							window[k] = (i + d[0] * k) * size + j + d[1] * k;
+							perSquare[window[k]]++;
+						}
+						found[count++] = window;
+					}
+				}
+			}
+		}
+		windows = java.util.Arrays.copyOf(found, count);
+		squareWindows = new int[size * size][];
+		for(int square = 0; square < size * size; square++) {
+			squareWindows[square] = new int[perSquare[square]];
+			perSquare[square] = 0;
+		}
+		for(int w = 0; w < count; w++) {
+			for(int square : windows[w]) {
+				squareWindows[square][perSquare[square]++] = w;
+			}
+		}
+	}
+
+	/**
+	 * @param x number of X pieces in a window
+	 * @param o number of O pieces in the same window
+	 * @return the value of the window to X
+	 */
+	long windowValue(int x, int o) {
+		if(o == 0) {
+			return weights[x];
+		}
+		if(x == 0) {
+			return -weights[o];
+		}
+		return 0;
+	}
+
+	/**
+	 * Places a piece on an empty square and checks whether it won.
+	 * @param square row * size + col
+	 * @param color X or O
+	 */
+	public void play(int square, int color) {
+		long bit = 1L << square;
+		int[] counts;
+		if(color == X) {
+			xBits[square >> 6] |= bit;
+			counts = xCount;
+		} else {
+			oBits[square >> 6] |= bit;
+			counts = oCount;
+		}
+		boolean won = false;
+		for(int w : squareWindows[square]) {
+			long before = windowValue(xCount[w], oCount[w]);
+			if(++counts[w] == winLength) {
+				won = true;
+			}
+			score += windowValue(xCount[w], oCount[w]) - before;
+		}
+		lastMoveWon = won;
+		moves[moveCount++] = square;
+	}
+
+	/**
+	 * Takes back the last move.
+	 */
+	public void undo() {
+		int square = moves[--moveCount];
+		long bit = 1L << square;
+		int[] counts;
+		if((xBits[square >> 6] & bit) != 0) {
+			xBits[square >> 6] &= ~bit;
+			counts = xCount;
+		} else {
+			oBits[square >> 6] &= ~bit;
+			counts = oCount;
+		}
+		for(int w : squareWindows[square]) {
+			long before = windowValue(xCount[w], oCount[w]);
+			counts[w]--;
+			score += windowValue(xCount[w], oCount[w]) - before;
+		}
+		// positions are never played on from after a win
+		lastMoveWon = false;
+	}
+
+	/**
+	 * @param square
+	 * @return X, O or EMPTY
+	 */
+	public int get(int square) {
+		long bit = 1L << square;
+		if((xBits[square >> 6] & bit) != 0) {
+			return X;
+		}
+		if((oBits[square >> 6] & bit) != 0) {
+			return O;
+		}
+		return EMPTY;
+	}
+
+	public boolean isEmpty(int square) {
+		long bit = 1L << square;
+		return ((xBits[square >> 6] | oBits[square >> 6]) & bit) == 0;
+	}
+
+	public boolean isFull() {
+		return moveCount == size * size;
+	}
+
+	/**
+	 * @return true if the last piece played made winLength in a row
+	 */
+	public boolean lastMoveWon() {
+		return lastMoveWon;
+	}
+
+	/**
+	 * @return the heuristic value of the board to X, positive when X has more and longer open lines than O
+	 */
+	public long getScore() {
+		return score;
+	}
+
+	public int getMoveCount() {
+		return moveCount;
+	}
+}
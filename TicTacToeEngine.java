@@ -0,0 +1,216 @@
+/**
+ * Depth limited alpha-beta search for TicTacToeBoard, for the boards that are too big to search to the end the
+ * way TicTacToe.minimax does.
+ *
+ * Below the depth limit the board is scored by its open lines (see TicTacToeBoard.getScore). Moves are tried in
+ * order of how much they add to the player's own open lines and take from the opponent's, so that winning and
+ * blocking moves come first. On boards bigger than 5 by 5 only empty squares within two of a piece are
+ * considered, since a move far from everything else is never better than one near the action.
+ *
+ * A search gives up soon after its thread is interrupted, so that a caller running it in the background can
+ * cancel it.
+ * @author Andrew
+ *
+ */
+public class TicTacToeEngine {
+
+	/**
+	 * Value of a win on the move, less one for every move it takes to get there. Far above any heuristic score.
+	 */
+	static final long WIN_SCORE = Long.MAX_VALUE / 4;
+	static final int NEIGHBOURHOOD = 2;
+
+	int maxDepth;
+	/**
+	 * Number of positions visited since this was last reset, and of those the ones scored by the heuristic, the
+	 * ones where the remaining moves were cut off, and the deepest ply reached.
+	 */
+	long nodes;
+	long leaves;
+	long cutoffs;
+	int deepest;
+
+	/**
+	 * Candidate moves and their ordering keys, one row per ply so that searching allocates nothing.
+	 */
+	int[][] moveBuffer = new int[0][];
+	long[][] keyBuffer = new long[0][];
+	/**
+	 * Squares near a piece are marked with the current stamp, so the marks never need clearing.
+	 */
+	int[] near = new int[0];
+	int stamp;
+
+	/**
+	 * Set when the search noticed that its thread was interrupted, after which it unwinds without trying more
+	 * moves.
+	 */
+	boolean aborted;
+
+	/**
+	 * @param maxDepth number of moves to look ahead
+	 */
+	public TicTacToeEngine(int maxDepth) {
+		this.maxDepth = maxDepth;
+	}
+
+	/**
+	 * @param b the board, which is left as it was
+	 * @param color the side to move, TicTacToeBoard.X or O
+	 * @return the square of the best move, or -1 if the board is full or the thread was interrupted
+	 */
+	public int bestMove(TicTacToeBoard b, int color) {
+		aborted = false;
+		int squares = b.size * b.size;
+		if(moveBuffer.length < maxDepth + 1 || moveBuffer[0].length < squares) {
+			moveBuffer = new int[maxDepth + 1][squares];
+			keyBuffer = new long[maxDepth + 1][squares];
+			near = new int[squares];
+			stamp = 0;
+		}
+		int count = generateMoves(b, 0, color);
+		int[] rootMoves = java.util.Arrays.copyOf(moveBuffer[0], count);
+		int best = -1;
+		long alpha = -WIN_SCORE - 1;
+		for(int square : rootMoves) {
+			b.play(square, color);
+			long value = -search(b, maxDepth - 1, 1, -WIN_SCORE - 1, -alpha, 3 - color);
+			b.undo();
+			if(aborted) {
+				return -1;
+			}
+			if(value > alpha || best == -1) {
+				alpha = value;
+				best = square;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Negamax with alpha-beta pruning.
+	 * @return the value of the board to color, who is about to move
+	 */
+	long search(TicTacToeBoard b, int depth, int ply, long alpha, long beta, int color) {
+		nodes++;
+		if((nodes & 255) == 0 && Thread.currentThread().isInterrupted()) {
+			aborted = true;
+		}
+		if(aborted) {
+			return 0;
+		}
+		if(ply > deepest) {
+			deepest = ply;
+		}
+		if(b.lastMoveWon()) {
+			return -(WIN_SCORE - ply);
+		}
+		if(b.isFull()) {
+			return 0;
+		}
+		if(depth == 0) {
+			leaves++;
+			return color == TicTacToeBoard.X ? b.getScore() : -b.getScore();
+		}
+		int count = generateMoves(b, ply, color);
+		int[] moves = moveBuffer[ply];
+		long best = -WIN_SCORE - 1;
+		for(int i = 0; i < count; i++) {
+			b.play(moves[i], color);
+			long value = -search(b, depth - 1, ply + 1, -beta, -alpha, 3 - color);
+			b.undo();
+			if(value > best) {
+				best = value;
+				if(value > alpha) {
+					alpha = value;
+					if(alpha >= beta) {
+						cutoffs++;
+						break;
+					}
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Fills moveBuffer[ply] with the candidate moves, best first.
+	 * @return the number of moves
+	 */
+	int generateMoves(TicTacToeBoard b, int ply, int color) {
+		int[] moves = moveBuffer[ply];
+		long[] keys = keyBuffer[ply];
+		int n = b.size;
+		int[] own = color == TicTacToeBoard.X ? b.xCount : b.oCount;
+		int[] opponent = color == TicTacToeBoard.X ? b.oCount : b.xCount;
+		boolean everywhere = n <= 5 || b.getMoveCount() == 0;
+		if(!everywhere) {
+			markNear(b);
+		}
+		int count = 0;
+		for(int square = 0; square < n * n; square++) {
+			if(!b.isEmpty(square) || !(everywhere || near[square] == stamp)) {
+				continue;
+			}
+			long key = 0;
+			for(int w : b.squareWindows[square]) {
+				if(opponent[w] == 0) {
+					key += b.weights[own[w] + 1];
+				}
+				if(own[w] == 0) {
+					key += b.weights[opponent[w] + 1];
+				}
+			}
+			// insertion sort, keeping squares with equal keys in board order
+			int i = count++;
+			while(i > 0 && keys[i - 1] < key) {
+				keys[i] = keys[i - 1];
+				moves[i] = moves[i - 1];
+				i--;
+			}
+			keys[i] = key;
+			moves[i] = square;
+		}
+		return count;
+	}
+
+	/**
+	 * Marks every square within NEIGHBOURHOOD squares of a piece in any direction.
+	 */
+	void markNear(TicTacToeBoard b) {
+		int n = b.size;
+		stamp++;
+		for(int m = 0; m < b.getMoveCount(); m++) {
+			int row = b.moves[m] / n;
+			int col = b.moves[m] % n;
+			for(int i = Math.max(0, row - NEIGHBOURHOOD); i <= Math.min(n - 1, row + NEIGHBOURHOOD); i++) {
+				for(int j = Math.max(0, col - NEIGHBOURHOOD); j <= Math.min(n - 1, col + NEIGHBOURHOOD); j++) {
+					near[i * n + j] = stamp;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Zeroes the counters.
+	 */
+	public void resetStats() {
+		nodes = 0;
+		leaves = 0;
+		cutoffs = 0;
+		deepest = 0;
+	}
+
+	public long getNodeCount() {
+		return nodes;
+	}
+
+	/**
+	 * @return a one line summary of the counters and the given search time
+	 */
+	public String statsToString(long wallNanos) {
+		double branching = deepest == 0 ? 0 : Math.pow(nodes, 1.0 / deepest);
+		return String.format("%d nodes, %d leaves, %d cutoffs, depth %d, branching %.2f, %.1f ms", nodes, leaves,
+				cutoffs, deepest, branching, wallNanos / 1e6);
+	}
+}
@@ -0,0 +1,238 @@
+import java.io.DataInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Perfect play for the 3 by 3 board, worked out once for every position so that the AI can answer with a single
+ * array lookup instead of running minimax on every click.
+ *
+ * A board is encoded as a base 3 number with one digit per square, read row by row: 0 for empty, 1 for X and 2
+ * for O. There are only 3^9 such numbers, so the table simply holds one byte for each: the move findBestMove would
+ * pick for X and the value of that move, exactly as the minimax search gives them.
+ *
+ * The table is normally read from the tictactoe.table resource, generated by running this class. If the
+ * resource is missing it is computed instead, which takes a few milliseconds.
+ *
+ * @author Andrew
+ *
+ */
+public class TicTacToeTable {
+
+	static final int POSITIONS = 19683;
+	static final String RESOURCE = "tictactoe.table";
+
+	/**
+	 * The rotations and reflections of the board, as the square each square moves to.
+	 */
+	static final int[][] SYMMETRIES = TicTacToe.squareSymmetries(3);
+	static final int[] POWERS = { 1, 3, 9, 27, 81, 243, 729, 2187, 6561 };
+
+	/**
+	 * Value of the best move plus 10, times 10, plus the move itself as row * 3 + col, or 9 if there is no move.
+	 */
+	byte[] entries;
+
+	private static TicTacToeTable instance;
+
+	TicTacToeTable(byte[] entries) {
+		this.entries = entries;
+	}
+
+	/**
+	 * @return the shared table, loaded on first use
+	 */
+	public static synchronized TicTacToeTable getInstance() {
+		if (instance == null) {
+			instance = load();
+		}
+		return instance;
+	}
+
+	/**
+	 * @param board a 3 by 3 board of 'X', 'O' and '-'
+	 * @return the base 3 code of the board
+	 */
+	public static int encode(char[][] board) {
+		int code = 0;
+		for (int i = 2; i > -1; i--) {
+			for (int j = 2; j > -1; j--) {
+				char c = board[i][j];
+				code = code * 3 + (c == 'X' ? 1 : c == 'O' ? 2 : 0);
+			}
+		}
+		return code;
+	}
+
+	/**
+	 * Positions that are rotations or reflections of each other have the same value, so the table is worked out
+	 * for just one of each group: the one with the smallest code.
+	 * @param code
+	 * @return the smallest code of any rotation or reflection of the board
+	 */
+	public static int canonical(int code) {
+		int min = code;
+		for (int s = 1; s < SYMMETRIES.length; s++) {
+			int[] symmetry = SYMMETRIES[s];
+			int image = 0;
+			int rest = code;
+			for (int square = 0; square < 9; square++) {
+				image += rest % 3 * POWERS[symmetry[square]];
+				rest /= 3;
+			}
+			if (image < min) {
+				min = image;
+			}
+		}
+		return min;
+	}
+
+	/**
+	 * @param code
+	 * @return the best move for X in the form {row, col}, {0, 0} if the board is full
+	 */
+	public int[] bestMove(int code) {
+		int move = (entries[code] & 0xff) % 10;
+		if (move == 9) {
+			return new int[] { 0, 0 };
+		}
+		return new int[] { move / 3, move % 3 };
+	}
+
+	/**
+	 * @param code
+	 * @return the minimax value of the best move for X
+	 */
+	public int value(int code) {
+		return (entries[code] & 0xff) / 10 - 10;
+	}
+
+	/**
+	 * Reads the table from its resource, or computes it if that is not available.
+	 */
+	static TicTacToeTable load() {
+		InputStream in = TicTacToeTable.class.getResourceAsStream(RESOURCE);
+		if (in != null) {
+			try {
+				byte[] entries = new byte[POSITIONS];
+				DataInputStream data = new DataInputStream(in);
+				data.readFully(entries);
+				data.close();
+				return new TicTacToeTable(entries);
+			} catch (IOException e) {
+				// fall through and compute it
+			}
+		}
+		return compute();
+	}
+
+	/**
+	 * Works out the table with the same rules as TicTacToe.minimax. Values are found once per position, relative
+	 * to that position: a win found k moves ahead is worth 10 - k. The search gives the same values shifted by
+	 * its depth, and the shift never changes which move is best.
+	 *
+	 * Values of positions still in play are shared between all rotations and reflections, by storing them
+	 * under the canonical code. Finished positions are always evaluated as they are, since a board where both
+	 * sides have a line (which never comes up in a real game) is not scored the same way in every orientation.
+	 */
+	static TicTacToeTable compute() {
+		TicTacToe game = new TicTacToe();
+		int[] maxValues = new int[POSITIONS];
+		int[] minValues = new int[POSITIONS];
+		boolean[] known = new boolean[2 * POSITIONS];
+		byte[] entries = new byte[POSITIONS];
+		for (int code = 0; code < POSITIONS; code++) {
+			int bestValue = -1000;
+			int bestMove = 9;
+			int power = 1;
+			for (int square = 0; square < 9; square++) {
+				if (code / power % 3 == 0) {
+					int value = solve(game, code + power, false, maxValues, minValues, known);
+					if (value > bestValue) {
+						bestValue = value;
+						bestMove = square;
+					}
+				}
+				power *= 3;
+			}
+			if (bestMove == 9) {
+				bestValue = 0;
+			}
+			entries[code] = (byte) ((bestValue + 10) * 10 + bestMove);
+		}
+		return new TicTacToeTable(entries);
+	}
+
+	/**
+	 * @return the minimax value of the position at depth 0
+	 */
+	private static int solve(TicTacToe game, int code, boolean isMaximizingPlayer, int[] maxValues, int[] minValues,
+			boolean[] known) {
+		int canonical = canonical(code);
+		int slot = isMaximizingPlayer ? canonical : POSITIONS + canonical;
+		if (known[slot]) {
+			return isMaximizingPlayer ? maxValues[canonical] : minValues[canonical];
+		}
+		decode(code, game.board);
+		int score = game.evaluateBoard();
+		if (score == 10 || score == -10) {
+			return score;
+		} else if (game.isEndState()) {
+			return 0;
+		}
+		int result = isMaximizingPlayer ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+		int power = 1;
+		for (int square = 0; square < 9; square++) {
+			if (code / power % 3 == 0) {
+				int child = code + power * (isMaximizingPlayer ? 1 : 2);
+				int value = solve(game, child, !isMaximizingPlayer, maxValues, minValues, known);
+				// one move further away
+				value = value > 0 ? value - 1 : value < 0 ? value + 1 : 0;
+				if (isMaximizingPlayer ? value > result : value < result) {
+					result = value;
+				}
+			}
+			power *= 3;
+		}
+		known[slot] = true;
+		if (isMaximizingPlayer) {
+			maxValues[canonical] = result;
+		} else {
+			minValues[canonical] = result;
+		}
+		return result;
+	}
+
+	static void decode(int code, char[][] board) {
+		for (int i = 0; i < 3; i++) {
+			for (int j = 0; j < 3; j++) {
+				int digit = code % 3;
+				board[i][j] = digit == 1 ? 'X' : digit == 2 ? 'O' : '-';
+				code /= 3;
+			}
+		}
+	}
+
+	/**
+	 * Writes the table in the format read by load.
+	 */
+	void write(OutputStream out) throws IOException {
+		out.write(entries);
+	}
+
+	/**
+	 * Generates the table resource.
+	 *
+	 * @param args the file to write, tictactoe.table by default
+	 */
+	public static void main(String[] args) throws IOException {
+		String file = args.length > 0 ? args[0] : RESOURCE;
+		OutputStream out = new FileOutputStream(file);
+		try {
+			compute().write(out);
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,346 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Micro benchmarks for the hot paths of both games, run against a fixed set of opening, midgame and near
+ * terminal positions so that numbers can be compared between changes.
+ *
+ * Every benchmark is warmed up first, then timed over several measurement iterations of half a second each.
+ * The clock is only read between batches of at least a millisecond, so that reading it does not show up in the
+ * time per operation of the fast benchmarks. Searches also report the positions they visit per operation and per
+ * second.
+ *
+ * Each benchmark also reports the bytes it allocates per operation, as counted by the JVM for the running thread.
+ * Run with "alloc" as the first argument to instead check that the engine searches allocate nothing at all, which
+ * exits with status 1 if one does.
+ *
+ * Usage: java Benchmarks [measurement iterations] [name filter]
+ *        java Benchmarks alloc [name filter]
+ *
+ * @author Andrew
+ *
+ */
+public class Benchmarks {
+
+	static final long WARMUP_NANOS = 2000000000L;
+	static final long ITERATION_NANOS = 500000000L;
+	static final long BATCH_NANOS = 1000000L;
+
+	/**
+	 * Positions for Connect 4, as the columns played in order starting with red.
+	 */
+	static final String[] C4_NAMES = { "opening", "midgame", "endgame" };
+	static final String[] C4_POSITIONS = { "33", "5263550245316053", "2222432506034033520460406443361665" };
+
+	/**
+	 * Positions for tic tac toe, all with X (the AI) to move.
+	 */
+	static final String[] TTT_NAMES = C4_NAMES;
+	static final String[][] TTT_POSITIONS = { { "---", "-O-", "---" }, { "X--", "-O-", "--O" },
+			{ "XO-", "OO-", "X--" } };
+
+	/**
+	 * Positions for the bigger tic tac toe boards, X to move, with the number in a row to win and the search depth.
+	 */
+	static final String[] BIG_NAMES = { "4x4", "15x15" };
+	static final String[][] BIG_POSITIONS = { { "----", "-O--", "--X-", "-O--" },
+			{ "---------------", "---------------", "---------------", "---------------", "---------------",
+					"---------------", "------XO-------", "-------OX------", "------O--------", "---------------",
+					"---------------", "---------------", "---------------", "---------------",
+					"---------------" } };
+	static final int[] BIG_WIN_LENGTHS = { 4, 5 };
+	static final int[] BIG_DEPTHS = { 8, 4 };
+
+	/**
+	 * Results are folded into this so the JIT cannot drop the work.
+	 */
+	static volatile long sink;
+
+	static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory
+			.getThreadMXBean();
+
+	/**
+	 * A single operation to time.
+	 */
+	abstract static class Benchmark {
+		final String name;
+
+		Benchmark(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Runs the operation once.
+		 *
+		 * @return any value depending on the result
+		 */
+		abstract long run();
+
+		/**
+		 * @return the number of positions visited by the last run, or 0 if the operation is not a search
+		 */
+		long nodes() {
+			return 0;
+		}
+	}
+
+	static Board connect4(String moves) {
+		Board b = new Board(6, 7);
+		Piece p = Piece.RED;
+		for (int i = 0; i < moves.length(); i++) {
+			b.placePiece(moves.charAt(i) - '0', p);
+			p = p == Piece.RED ? Piece.YELLOW : Piece.RED;
+		}
+		return b;
+	}
+
+	static Piece toMove(String moves) {
+		return moves.length() % 2 == 0 ? Piece.RED : Piece.YELLOW;
+	}
+
+	static TicTacToe ticTacToe(String[] rows) {
+		TicTacToe t = new TicTacToe();
+		for (int i = 0; i < rows.length; i++) {
+			t.board[i] = rows[i].toCharArray();
+		}
+		return t;
+	}
+
+	static List<Benchmark> benchmarks() {
+		List<Benchmark> list = new ArrayList<Benchmark>();
+		for (int i = 0; i < TTT_POSITIONS.length; i++) {
+			final String suffix = "/" + TTT_NAMES[i];
+			final TicTacToe t = ticTacToe(TTT_POSITIONS[i]);
+			list.add(new Benchmark("TicTacToe.findBestMove" + suffix) {
+				long run() {
+					int[] move = t.findBestMove();
+					return move[0] * 3 + move[1];
+				}
+			});
+			list.add(new Benchmark("TicTacToe.searchBestMove" + suffix) {
+				long run() {
+					t.nodes = 0;
+					int[] move = t.searchBestMove();
+					return move[0] * 3 + move[1];
+				}
+
+				long nodes() {
+					return t.nodes;
+				}
+			});
+			list.add(new Benchmark("TicTacToe.minimax" + suffix) {
+				long run() {
+					t.nodes = 0;
+					return t.minimax(0, true);
+				}
+
+				long nodes() {
+					return t.nodes;
+				}
+			});
+			list.add(new Benchmark("TicTacToe.evaluateBoard" + suffix) {
+				long run() {
+					return t.evaluateBoard();
+				}
+			});
+		}
+		for (int i = 0; i < BIG_POSITIONS.length; i++) {
+			final TicTacToeBoard b = new TicTacToeBoard(BIG_POSITIONS[i].length, BIG_WIN_LENGTHS[i]);
+			for (int j = 0; j < BIG_POSITIONS[i].length; j++) {
+				for (int k = 0; k < b.size; k++) {
+					char c = BIG_POSITIONS[i][j].charAt(k);
+					if (c != '-') {
+						b.play(j * b.size + k, c == 'X' ? TicTacToeBoard.X : TicTacToeBoard.O);
+					}
+				}
+			}
+			final TicTacToeEngine engine = new TicTacToeEngine(BIG_DEPTHS[i]);
+			list.add(new Benchmark("TicTacToeEngine.bestMove/" + BIG_NAMES[i]) {
+				long run() {
+					engine.nodes = 0;
+					return engine.bestMove(b, TicTacToeBoard.X);
+				}
+
+				long nodes() {
+					return engine.nodes;
+				}
+			});
+		}
+		for (int i = 0; i < C4_POSITIONS.length; i++) {
+			final String suffix = "/" + C4_NAMES[i];
+			final Board b = connect4(C4_POSITIONS[i]);
+			final Piece p = toMove(C4_POSITIONS[i]);
+			final StrongAI plain = new StrongAI(p);
+			final StrongAI pruning = new StrongAI(p, true);
+			list.add(new Benchmark("StrongAI.getMove" + suffix) {
+				long run() {
+					return plain.getMove(b);
+				}
+
+				long nodes() {
+					return plain.getNodeCount();
+				}
+			});
+			list.add(new Benchmark("StrongAI.getMove(alphaBeta)" + suffix) {
+				long run() {
+					return pruning.getMove(b);
+				}
+
+				long nodes() {
+					return pruning.getNodeCount();
+				}
+			});
+			list.add(new Benchmark("StrongAI.minimax" + suffix) {
+				long run() {
+					plain.nodes = 0;
+					return plain.minimax(b, 0, true);
+				}
+
+				long nodes() {
+					return plain.nodes;
+				}
+			});
+			list.add(new Benchmark("StrongAI.evaluateBoardDumb" + suffix) {
+				long run() {
+					return plain.evaluateBoardDumb(b);
+				}
+			});
+			list.add(new Benchmark("StrongAI.evaluateBoard" + suffix) {
+				long run() {
+					return plain.evaluateBoard(b);
+				}
+			});
+			list.add(new Benchmark("Board.placePiece+undoMove" + suffix) {
+				int col;
+
+				long run() {
+					col = col + 1 == b.numCols ? 0 : col + 1;
+					if (b.placePiece(col, p)) {
+						b.undoMove(col);
+						return col;
+					}
+					return -1;
+				}
+			});
+			final Game g = new Game();
+			g.board = b;
+			list.add(new Benchmark("Game.checkWin" + suffix) {
+				long run() {
+					return g.checkWin() == null ? 0 : 1;
+				}
+			});
+		}
+		return list;
+	}
+
+	/**
+	 * Runs the operation in batches until about the given time has passed.
+	 *
+	 * @return {operations run, nanoseconds taken}
+	 */
+	static long[] runFor(Benchmark bench, int batch, long nanos) {
+		long ops = 0;
+		long acc = 0;
+		long start = System.nanoTime();
+		long elapsed;
+		do {
+			for (int i = 0; i < batch; i++) {
+				acc += bench.run();
+			}
+			ops += batch;
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < nanos);
+		sink += acc;
+		return new long[] { ops, elapsed };
+	}
+
+	static void measure(Benchmark bench, int iterations, PrintStream out) {
+		long[] warmup = runFor(bench, 1, WARMUP_NANOS);
+		int batch = (int) Math.max(1, Math.min(1 << 20, BATCH_NANOS * warmup[0] / warmup[1]));
+		double[] nsPerOp = new double[iterations];
+		double total = 0;
+		for (int i = 0; i < iterations; i++) {
+			long[] result = runFor(bench, batch, ITERATION_NANOS);
+			nsPerOp[i] = (double) result[1] / result[0];
+			total += nsPerOp[i];
+		}
+		double mean = total / iterations;
+		double variance = 0;
+		for (double ns : nsPerOp) {
+			variance += (ns - mean) * (ns - mean);
+		}
+		double error = iterations > 1 ? Math.sqrt(variance / (iterations - 1)) : 0;
+		double bytes = (double) allocatedBy(bench, batch) / batch;
+		bench.run();
+		long nodes = bench.nodes();
+		if (nodes > 0) {
+			out.printf("%-45s %14.1f ns/op  +- %10.1f  %10.1f B/op  %10d nodes/op  %12.0f nodes/s%n", bench.name, mean,
+					error, bytes, nodes, nodes * 1e9 / mean);
+		} else {
+			out.printf("%-45s %14.1f ns/op  +- %10.1f  %10.1f B/op%n", bench.name, mean, error, bytes);
+		}
+	}
+
+	/**
+	 * @return the bytes allocated by running the operation the given number of times
+	 */
+	static long allocatedBy(Benchmark bench, int ops) {
+		long acc = 0;
+		long before = THREADS.getCurrentThreadAllocatedBytes();
+		for (int i = 0; i < ops; i++) {
+			acc += bench.run();
+		}
+		long after = THREADS.getCurrentThreadAllocatedBytes();
+		sink += acc;
+		return after - before;
+	}
+
+	/**
+	 * Checks that every StrongAI.getMove benchmark matching the filter allocates nothing once warmed up, so that
+	 * the bytes per visited position are zero.
+	 *
+	 * @return true if none of them allocated
+	 */
+	static boolean checkAllocations(String filter, PrintStream out) {
+		boolean clean = true;
+		for (Benchmark bench : benchmarks()) {
+			if (!bench.name.startsWith("StrongAI.getMove") || !bench.name.contains(filter)) {
+				continue;
+			}
+			long[] warmup = runFor(bench, 1, WARMUP_NANOS);
+			int ops = (int) Math.max(10, Math.min(1 << 16, warmup[0] / 2));
+			long bytes = allocatedBy(bench, ops);
+			long nodes = bench.nodes() * ops;
+			out.printf("%-45s %12d bytes over %10d nodes  %s%n", bench.name, bytes, nodes, bytes == 0 ? "ok" : "ALLOCATES");
+			clean &= bytes == 0;
+		}
+		return clean;
+	}
+
+	public static void main(String[] args) {
+		boolean alloc = args.length > 0 && args[0].equals("alloc");
+		int iterations = args.length > 0 && !alloc ? Integer.parseInt(args[0]) : 5;
+		String filter = args.length > 1 ? args[1] : "";
+		PrintStream out = System.out;
+		// the engines log to stdout, keep that out of the results
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+		}));
+		if (alloc) {
+			if (!checkAllocations(filter, out)) {
+				System.exit(1);
+			}
+			return;
+		}
+		for (Benchmark bench : benchmarks()) {
+			if (bench.name.contains(filter)) {
+				measure(bench, iterations, out);
+			}
+		}
+	}
+}